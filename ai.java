@@ -5,7 +5,6 @@
 package ataxx;
 
 import java.util.Random;
-import java.util.ArrayList;
 
 import static ataxx.PieceColor.*;
 import static java.lang.Math.min;
@@ -86,42 +85,27 @@ class AI extends Player {
         best = null;
         int bestScore;
         bestScore = -1 * sense * INFTY;
-        ArrayList<Move> possibleMoves = new ArrayList<>();
-        for (char i = 'a'; i <= 'g'; i++) {
-            for (char j = '1'; j <= '7'; j++) {
-                if (board.get(i, j) == board.whoseMove()) {
-                    int start = Board.index(i, j);
-                    for (int k = -2; k <= 2; k++) {
-                        for (int l = -2; l <= 2; l++) {
-                            int end = board.neighbor(start, k, l);
-                            if (board.get(end) == EMPTY) {
-                                char c0 = i;
-                                char r0 = j;
-                                char c1 = (char) ((int) i + k);
-                                char c2 = (char) ((int) j + l);
-                                possibleMoves.add(Move.move(c0, r0, c1, c2));
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        if (possibleMoves == null) {
+        int[] possibleMoves = _moves[depth];
+        int numMoves = board.generateMoves(board.whoseMove(), possibleMoves);
+        if (numMoves == 0) {
             board.pass();
             best = Move.pass();
             bestScore = minMax(board, depth - 1, false, sense * -1,
                     alpha, beta);
+            board.undo();
         }
-        for (int a = 0; a < possibleMoves.size(); a++) {
-            best = possibleMoves.get(a);
-            board.makeMove(best);
+        for (int a = 0; a < numMoves; a++) {
+            Move move = Board.unpackMove(possibleMoves[a]);
+            board.makeMove(move);
             int score = minMax(board, depth - 1, false, sense * -1,
                     alpha, beta);
             if (sense == 1 && score > bestScore) {
+                best = move;
                 bestScore = score;
                 alpha = max(alpha, bestScore);
             }
             if (sense == -1 && score < bestScore) {
+                best = move;
                 bestScore = score;
                 beta = min(beta, bestScore);
             }
@@ -152,6 +136,11 @@ class AI extends Player {
 
     }
 
+    /** Packed moves (see Board.generateMoves) considered by minMax at each
+     *  remaining search depth, preallocated so that searching allocates
+     *  nothing. */
+    private final int[][] _moves = new int[MAX_DEPTH + 1][Board.MAX_MOVES];
+
     /** Pseudo-random number generator for move computation. */
     private Random _random = new Random();
 }
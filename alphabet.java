@@ -1,6 +1,8 @@
 package enigma;
 
-import java.util.HashMap;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
@@ -8,17 +10,22 @@ import java.util.HashMap;
  */
 class Alphabet {
 
-    /** Hashmap that contains the alphabet. */
-    private HashMap<Integer, Character> _alphabet;
-
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-
-        _alphabet = new HashMap<Integer, Character>();
-        for (int i = 0; i < chars.length(); i++) {
-            char holder = chars.charAt(i);
-            _alphabet.put(i, holder);
+        _chars = chars.toCharArray();
+        char max = 0;
+        for (char ch : _chars) {
+            max = (char) Math.max(max, ch);
+        }
+        _index = new int[max + 1];
+        Arrays.fill(_index, -1);
+        for (int i = 0; i < _chars.length; i++) {
+            if (_index[_chars[i]] >= 0) {
+                throw error("duplicate character '%c' in alphabet",
+                            _chars[i]);
+            }
+            _index[_chars[i]] = i;
         }
     }
 
@@ -27,38 +34,63 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** Return an alphabet of the 256 byte values, in which the character
+     *  with index K is (char) K. */
+    static Alphabet bytes() {
+        char[] chars = new char[BYTE_VALUES];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) i;
+        }
+        return new Alphabet(new String(chars));
+    }
+
+    /** Return true iff I am an alphabet of bytes, as made by bytes(). */
+    boolean isBytes() {
+        if (_chars.length != BYTE_VALUES) {
+            return false;
+        }
+        for (int i = 0; i < _chars.length; i++) {
+            if (_chars[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
-        return _alphabet.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        for (char character : _alphabet.values()) {
-            if (character == ch) {
-                return true;
-            }
-        }
-        return false;
+        return ch < _index.length && _index[ch] >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return _alphabet.get(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        int counter = 0;
-        for (char character : _alphabet.values()) {
-            if (character == ch) {
-                break;
-            }
-            counter++;
+        if (!contains(ch)) {
+            throw error("character '%c' is not in the alphabet", ch);
         }
-        return counter;
+        return _index[ch];
     }
 
+    /** Number of distinct byte values. */
+    static final int BYTE_VALUES = 256;
+
+    /** The characters of this alphabet, in index order. */
+    private final char[] _chars;
+
+    /** The index of each character, or -1 for characters that are not in
+     *  this alphabet.  Covers every character up to the largest one in
+     *  the alphabet; larger characters are never members. */
+    private final int[] _index;
+
 }
@@ -7,7 +7,6 @@ package ataxx;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Stack;
 import java.util.Formatter;
 
 import java.util.function.Consumer;
@@ -34,6 +33,13 @@ import static ataxx.GameException.error;
  *  number of the square in row-major order (counting from 0).
  *
  *  Moves on this board are denoted by Moves.
+ *
+ *  Internally, the contents of the 49 squares of the real board are kept
+ *  as bitboards: one long each for the red, blue, and blocked squares, in
+ *  which bit 7 * R + C stands for the square in row R and column C
+ *  (counting from 0).  Captures and mobility are then computed with masks,
+ *  shifts, and bit counts rather than by visiting squares, and a board is
+ *  only a few words to copy.
  *  @author Aayush Gupta
  */
 class Board {
@@ -48,45 +54,30 @@ class Board {
     /** Number of consecutive non-extending moves before game ends. */
     static final int JUMP_LIMIT = 25;
 
+    /** An upper bound on the number of moves generated by generateMoves:
+     *  one extend per square, and a jump from each square to each of the
+     *  16 squares two steps away. */
+    static final int MAX_MOVES = SIDE * SIDE * 17;
+
     /** A new, cleared board in the initial configuration. */
     Board() {
-        _board = new PieceColor[EXTENDED_SIDE * EXTENDED_SIDE];
         _whoseMove = RED;
         _allMoves = new ArrayList<>();
-        _undoSquares = new Stack<>();
-        _undoPieces = new Stack<>();
+        _undoStack = new long[UNDO_CAPACITY];
 
         setNotifier(NOP);
         clear();
-        unrecordedSet('g', '1', RED);
-        unrecordedSet('a', '1', BLUE);
-        unrecordedSet('g', '7', BLUE);
-        unrecordedSet('a', '7', RED);
-
-        for (int i = 0; i < EXTENDED_SIDE * EXTENDED_SIDE; i++) {
-            if (i <= EXTENDED_SIDE * 2 - 1) {
-                _board[i] = BLOCKED;
-            }
-            if (i >= EXTENDED_SIDE * 9) {
-                _board[i] = BLOCKED;
-            }
-            if (i % EXTENDED_SIDE == 0 || i % EXTENDED_SIDE == 1
-                    || i % EXTENDED_SIDE == 9 | i % EXTENDED_SIDE == 10) {
-                _board[i] = BLOCKED;
-            }
-        }
     }
 
     /** A board whose initial contents are copied from BOARD0, but whose
      *  undo history is clear, and whose notifier does nothing. */
     Board(Board board0) {
-        _board = board0._board.clone();
+        _red = board0._red;
+        _blue = board0._blue;
+        _blocked = board0._blocked;
         _whoseMove = board0._whoseMove;
         _allMoves = new ArrayList<>();
-        _undoSquares = new Stack<>();
-        _undoPieces = new Stack<>();
-        _numPieces = board0._numPieces.clone();
-        _totalOpen = board0._totalOpen;
+        _undoStack = new long[UNDO_CAPACITY];
         _numJumps = board0._numJumps;
         setNotifier(NOP);
     }
@@ -102,28 +93,31 @@ class Board {
         return sq + dc + dr * EXTENDED_SIDE;
     }
 
+    /** Return the bit standing for the square with linearized index SQ in
+     *  my bitboards, or -1 if SQ is in the border. */
+    static int bit(int sq) {
+        return BIT_OF[sq];
+    }
+
+    /** Return the linearized index of the square standing for bit B of my
+     *  bitboards. */
+    static int square(int b) {
+        return SQUARE_OF[b];
+    }
+
     /** Clear me to my starting state, with pieces in their initial
      *  positions and no blocks. */
     void clear() {
         _numJumps = 0;
-        _totalOpen = (EXTENDED_SIDE - 4) * (EXTENDED_SIDE - 4) - 4;
-        _numPieces[0] = _totalOpen;
-        _numPieces[1] = (EXTENDED_SIDE - 4) * (EXTENDED_SIDE - 4) - _totalOpen;
-        _numPieces[2] = 2;
-        _numPieces[3] = 2;
         _winner = null;
         _allMoves = new ArrayList<>();
+        _undoSize = 0;
 
-        for (int i = EXTENDED_SIDE * 2 + 3; i < EXTENDED_SIDE * 9 - 3; i++) {
-            if (i != EXTENDED_SIDE * 3 - 3 && i != EXTENDED_SIDE * 8 + 2
-                    && get(i) != BLOCKED) {
-                set(i, EMPTY);
-            }
-        }
-        unrecordedSet('g', '1', RED);
-        unrecordedSet('a', '1', BLUE);
-        unrecordedSet('g', '7', BLUE);
-        unrecordedSet('a', '7', RED);
+        _red = _blue = _blocked = 0;
+        set('g', '1', RED);
+        set('a', '1', BLUE);
+        set('g', '7', BLUE);
+        set('a', '7', RED);
         announce();
     }
 
@@ -132,7 +126,7 @@ class Board {
      *  having been MAX_JUMPS consecutive jumps without intervening extends,
      *  or if neither player can move and both have the same number of pieces.*/
     PieceColor getWinner() {
-        if (_totalOpen == 0) {
+        if (totalOpen() == 0) {
             _winner = _whoseMove.opposite();
         } else if (redPieces() == 0) {
             _winner = BLUE;
@@ -141,7 +135,7 @@ class Board {
         } else if (!canMove(RED) && !canMove(BLUE)
                 && redPieces() == bluePieces()) {
             _winner = EMPTY;
-        } else if (_numJumps == EXTENDED_SIDE * 2 + 3) {
+        } else if (_numJumps == JUMP_LIMIT) {
             _winner = EMPTY;
         } else {
             _winner = null;
@@ -159,50 +153,78 @@ class Board {
         return numPieces(BLUE);
     }
 
-    /** Return number of COLOR pieces on the board. */
+    /** Return number of COLOR pieces on the board, or for EMPTY and
+     *  BLOCKED, the number of such squares of the real board. */
     int numPieces(PieceColor color) {
-        return _numPieces[color.ordinal()];
+        return Long.bitCount(squares(color));
     }
 
-    /** Increment numPieces(COLOR) by K. */
-    private void incrPieces(PieceColor color, int k) {
-        _numPieces[color.ordinal()] += k;
+    /** Return the bitboard of the squares of the real board whose contents
+     *  are COLOR. */
+    long squares(PieceColor color) {
+        switch (color) {
+        case RED:
+            return _red;
+        case BLUE:
+            return _blue;
+        case BLOCKED:
+            return _blocked;
+        default:
+            return ALL & ~(_red | _blue | _blocked);
+        }
     }
 
     /** The current contents of square CR, where 'a'-2 <= C <= 'g'+2, and
      *  '1'-2 <= R <= '7'+2.  Squares outside the range a1-g7 are all
      *  BLOCKED.  Returns the same value as get(index(C, R)). */
     PieceColor get(char c, char r) {
-        return _board[index(c, r)];
+        return get(index(c, r));
     }
 
     /** Return the current contents of square with linearized index SQ. */
     PieceColor get(int sq) {
-        return _board[sq];
+        int b = BIT_OF[sq];
+        if (b < 0) {
+            return BLOCKED;
+        }
+        long mask = 1L << b;
+        if ((_red & mask) != 0) {
+            return RED;
+        } else if ((_blue & mask) != 0) {
+            return BLUE;
+        } else if ((_blocked & mask) != 0) {
+            return BLOCKED;
+        }
+        return EMPTY;
     }
 
     /** Set get(C, R) to V, where 'a' <= C <= 'g', and
-     *  '1' <= R <= '7'. This operation is undoable. */
+     *  '1' <= R <= '7'.  Changes made other than by moves are not
+     *  undoable. */
     private void set(char c, char r, PieceColor v) {
         set(index(c, r), v);
     }
 
-    /** Set square with linearized index SQ to V.  This operation is
-     *  undoable. */
+    /** Set square with linearized index SQ, which is on the real board,
+     *  to V.  Changes made other than by moves are not undoable. */
     private void set(int sq, PieceColor v) {
-        _board[sq] = v;
-    }
-
-    /** Set square at C R to V (not undoable). This is used for changing
-     * contents of the board without updating the undo stacks. */
-    private void unrecordedSet(char c, char r, PieceColor v) {
-        _board[index(c, r)] = v;
-    }
-
-    /** Set square at linearized index SQ to V (not undoable). This is used
-     * for changing contents of the board without updating the undo stacks. */
-    private void unrecordedSet(int sq, PieceColor v) {
-        _board[sq] = v;
+        long mask = 1L << BIT_OF[sq];
+        _red &= ~mask;
+        _blue &= ~mask;
+        _blocked &= ~mask;
+        switch (v) {
+        case RED:
+            _red |= mask;
+            break;
+        case BLUE:
+            _blue |= mask;
+            break;
+        case BLOCKED:
+            _blocked |= mask;
+            break;
+        default:
+            break;
+        }
     }
 
     /** Return true iff MOVE is legal on the current board. */
@@ -210,6 +232,9 @@ class Board {
         if (move == null) {
             return false;
         }
+        if (move.isPass()) {
+            return !canMove(_whoseMove);
+        }
         if (get(move.fromIndex()) == BLOCKED
                 || get(move.toIndex()) == BLOCKED) {
             return false;
@@ -218,9 +243,6 @@ class Board {
         if (a != _whoseMove) {
             return false;
         }
-        if (move.isPass()) {
-            return !canMove(_whoseMove);
-        }
         if (get(move.toIndex()) != EMPTY) {
             return false;
         }
@@ -238,23 +260,70 @@ class Board {
     /** Return true iff player WHO can move, ignoring whether it is
      *  that player's move and whether the game is over. */
     boolean canMove(PieceColor who) {
-        char i, j;
-        for (i = 'a'; i <= 'g'; i++) {
-            for (j = '1'; j <= '7'; j++) {
-                if (get(i, j) == who) {
-                    for (int k = -2; k < 3; k++) {
-                        for (int l = -2; l < 3; l++) {
-                            Move possible = Move.move(i, j, (char) (i + k),
-                                    (char) (j + l));
-                            if (legalMove(possible)) {
-                                return true;
-                            }
-                        }
-                    }
-                }
+        if (who != RED && who != BLUE) {
+            return false;
+        }
+        return (extendTargets(who) | jumpTargets(who)) != 0;
+    }
+
+    /** Store in OUT the moves of player WHO (RED or BLUE) on the current
+     *  board, ignoring whether it is that player's move and whether the
+     *  game is over, and return their number, which is at most MAX_MOVES.
+     *  Moves are packed as by packMove.  Since every extend to the same
+     *  square gives the same position, there is one extend for each empty
+     *  square next to one of WHO's pieces, from one of those pieces; these
+     *  come first, and are followed by all jumps.  Passes are not
+     *  included. */
+    int generateMoves(PieceColor who, int[] out) {
+        long mine = squares(who);
+        long empty = squares(EMPTY);
+        int n = 0;
+        for (long to = extendTargets(who); to != 0; to &= to - 1) {
+            int b = Long.numberOfTrailingZeros(to);
+            out[n] = packMove(Long.numberOfTrailingZeros(STEP[b] & mine), b);
+            n += 1;
+        }
+        for (long from = mine; from != 0; from &= from - 1) {
+            int b = Long.numberOfTrailingZeros(from);
+            for (long to = JUMP[b] & empty; to != 0; to &= to - 1) {
+                out[n] = packMove(b, Long.numberOfTrailingZeros(to));
+                n += 1;
             }
         }
-        return false;
+        return n;
+    }
+
+    /** Return the bitboard of the empty squares to which player WHO can
+     *  extend. */
+    private long extendTargets(PieceColor who) {
+        return spread(squares(who)) & squares(EMPTY);
+    }
+
+    /** Return the bitboard of the empty squares to which player WHO can
+     *  jump. */
+    private long jumpTargets(PieceColor who) {
+        long near = spread(squares(who));
+        return spread(near) & ~near & squares(EMPTY);
+    }
+
+    /** Return the packed move from the square of bit FROM to that of bit
+     *  TO. */
+    static int packMove(int from, int to) {
+        return from | to << MOVE_SHIFT;
+    }
+
+    /** Return the Move denoted by the packed move MOVE (as from
+     *  packMove), or null if there is none. */
+    static Move unpackMove(int move) {
+        return PACKED_MOVES[move];
+    }
+
+    /** Return the squares of the real board that are in SQUARES or
+     *  adjacent (including diagonally) to one of them. */
+    static long spread(long squares) {
+        long rows = (squares | ((squares << 1) & ~COLUMN_A)
+                     | ((squares >>> 1) & ~COLUMN_G)) & ALL;
+        return (rows | (rows << SIDE) | (rows >>> SIDE)) & ALL;
     }
 
     /** Return the color of the player who has the next move.  The
@@ -307,84 +376,67 @@ class Board {
             return;
         }
         _allMoves.add(move);
-
-        startUndo();
-        addUndo(move.toIndex());
-        addUndo(move.fromIndex());
+        pushUndo();
 
         PieceColor opponent = _whoseMove.opposite();
+        int to = BIT_OF[move.toIndex()];
+        long theirs = squares(opponent);
+        long captured = STEP[to] & theirs;
+        long mine = squares(_whoseMove) | captured | (1L << to);
         if (move.isJump()) {
             _numJumps += 1;
-            set(move.col0(), move.row0(), EMPTY);
-
-        }
-        set(move.col1(), move.row1(), _whoseMove);
-
-        int neighborIndex;
-        for (int i = -1; i < 2; i++) {
-            for (int j = -1; j < 2; j++) {
-                neighborIndex = neighbor(move.toIndex(), i, j);
-                if (get(neighborIndex) == opponent
-                        && neighborIndex != move.fromIndex()) {
-                    addUndo(neighborIndex);
-                    set(neighborIndex, _whoseMove);
-                    incrPieces(_whoseMove, 1);
-                    incrPieces(opponent, -1);
-                }
-            }
-        }
-        if (move.isExtend()) {
-            incrPieces(_whoseMove, 1);
-            _totalOpen -= 1;
+            mine &= ~(1L << BIT_OF[move.fromIndex()]);
+        } else {
             _numJumps = 0;
         }
+        setSquares(_whoseMove, mine);
+        setSquares(opponent, theirs & ~captured);
         _winner = getWinner();
-        _numPieces[0] = _totalOpen;
         _whoseMove = opponent;
         announce();
     }
 
+    /** Set the bitboard of COLOR, which is RED or BLUE, to SQUARES. */
+    private void setSquares(PieceColor color, long squares) {
+        if (color == RED) {
+            _red = squares;
+        } else {
+            _blue = squares;
+        }
+    }
+
     /** Update to indicate that the current player passes, assuming it
      *  is legal to do so. Passing is undoable. */
     void pass() {
         assert !canMove(_whoseMove);
         _allMoves.add(Move.pass());
-        startUndo();
+        pushUndo();
         _whoseMove = _whoseMove.opposite();
         announce();
     }
 
     /** Undo the last move. */
     void undo() {
-        while (_undoSquares.get(_undoSquares.size() - 1) != null) {
-            PieceColor color = get(_undoSquares.get(_undoSquares.size() - 1));
-            if (color != _undoPieces.lastElement()) {
-                incrPieces(_undoPieces.lastElement(), 1);
-                incrPieces(color, -1);
-            }
-            set(_undoSquares.pop(), _undoPieces.pop());
-        }
-        if (_allMoves.get(_allMoves.size() - 1).isJump()) {
-            _numJumps -= 1;
-        }
-        _undoSquares.pop();
+        _undoSize -= UNDO_ENTRY;
+        _red = _undoStack[_undoSize];
+        _blue = _undoStack[_undoSize + 1];
+        _numJumps = (int) _undoStack[_undoSize + 2];
         _whoseMove = _whoseMove.opposite();
         _allMoves.remove(_allMoves.size() - 1);
         _winner = getWinner();
         announce();
     }
 
-    /** Indicate beginning of a move in the undo stack. See the
-     * _undoSquares and _undoPieces instance variable comments for
-     * details on how the beginning of moves are marked. */
-    private void startUndo() {
-        _undoSquares.push(null);
-    }
-
-    /** Add an undo action for changing SQ on current board. */
-    private void addUndo(int sq) {
-        _undoSquares.push(sq);
-        _undoPieces.push(get(sq));
+    /** Save the state changed by moves on the undo stack, for the move
+     *  about to be made. */
+    private void pushUndo() {
+        if (_undoSize + UNDO_ENTRY > _undoStack.length) {
+            _undoStack = Arrays.copyOf(_undoStack, 2 * _undoStack.length);
+        }
+        _undoStack[_undoSize] = _red;
+        _undoStack[_undoSize + 1] = _blue;
+        _undoStack[_undoSize + 2] = _numJumps;
+        _undoSize += UNDO_ENTRY;
     }
 
     /** Return true iff it is legal to place a block at C R. */
@@ -460,19 +512,6 @@ class Board {
         set(c, reflectedRow, BLOCKED);
         set(reflectedCol, reflectedRow, BLOCKED);
 
-        if (reflectedCol == c && reflectedRow == r) {
-            _totalOpen -= 1;
-        }
-
-        if ((reflectedCol == c && reflectedRow != r)
-                || (reflectedCol != c && reflectedRow == r)) {
-            _totalOpen -= 2;
-        }
-
-        if (reflectedCol != c && reflectedRow != r) {
-            _totalOpen -= 4;
-        }
-
         if (!canMove(RED) && !canMove(BLUE)) {
             _winner = EMPTY;
         }
@@ -485,9 +524,10 @@ class Board {
         setBlock(cr.charAt(0), cr.charAt(1));
     }
 
-    /** Return total number of unblocked squares. */
+    /** Return total number of unblocked squares that are not occupied by
+     *  pieces. */
     int totalOpen() {
-        return _totalOpen;
+        return numPieces(EMPTY);
     }
 
     /** Return a list of all moves made since the last clear (or start of
@@ -507,12 +547,14 @@ class Board {
             return false;
         }
         Board other = (Board) obj;
-        return Arrays.equals(_board, other._board);
+        return _red == other._red && _blue == other._blue
+            && _blocked == other._blocked;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(_board);
+        return Long.hashCode(_red) * 31 * 31 + Long.hashCode(_blue) * 31
+            + Long.hashCode(_blocked);
     }
 
     /** Return a text depiction of the board.  If LEGEND, supply row and
@@ -567,21 +609,15 @@ class Board {
     /** Use _notifier.accept(this) to announce changes to this board. */
     private Consumer<Board> _notifier;
 
-    /** For reasons of efficiency in copying the board,
-     *  we use a 1D array to represent it, using the usual access
-     *  algorithm: row r, column c => index(r, c).
-     *
-     *  Next, instead of using a 7x7 board, we use an 11x11 board in
-     *  which the outer two rows and columns are blocks, and
-     *  row 2, column 2 actually represents row 0, column 0
-     *  of the real board.  As a result of this trick, there is no
-     *  need to special-case being near the edge: we don't move
-     *  off the edge because it looks blocked.
-     *
-     *  Using characters as indices, it follows that if 'a' <= c <= 'g'
-     *  and '1' <= r <= '7', then row r, column c of the board corresponds
-     *  to _board[(c -'a' + 2) + 11 (r - '1' + 2) ]. */
-    private final PieceColor[] _board;
+    /** Bitboards of the red, blue, and blocked squares of the real board.
+     *  Squares are named by linearized index on an 11x11 board in which
+     *  the outer two rows and columns are blocks, and row 2, column 2
+     *  actually represents row 0, column 0 of the real board, so that if
+     *  'a' <= c <= 'g' and '1' <= r <= '7', then row r, column c of the
+     *  board has index (c -'a' + 2) + 11 (r - '1' + 2), which stands for
+     *  bit 7 (r - '1') + (c - 'a') of the bitboards.  Squares in the
+     *  border are always blocked, and have no bits. */
+    private long _red, _blue, _blocked;
 
     /** Player that is next to move. */
     private PieceColor _whoseMove;
@@ -590,13 +626,6 @@ class Board {
      *  last clear or the beginning of the game. */
     private int _numJumps;
 
-    /** Total number of unblocked squares. */
-    private int _totalOpen;
-
-    /** Number of blue and red pieces, indexed by the ordinal positions of
-     *  enumerals BLUE and RED. */
-    private int[] _numPieces = new int[BLUE.ordinal() + 1];
-
     /** Set to winner when game ends (EMPTY if tie).  Otherwise is null. */
     private PieceColor _winner;
 
@@ -604,15 +633,78 @@ class Board {
      *  the game. */
     private ArrayList<Move> _allMoves;
 
-    /* The undo stack. We keep a stack of squares that have changed and
-     * their previous contents.  Any given move may involve several such
-     * changes, so we mark the start of the changes for each move (including
-     * passes) with a null. */
-
-    /** Stack of linearized indices of squares that have been modified and
-     *  not undone. Nulls mark the beginnings of full moves. */
-    private Stack<Integer> _undoSquares;
-    /** Stack of pieces formally at corresponding squares in _UNDOSQUARES. */
-    private Stack<PieceColor> _undoPieces;
+    /* The undo stack.  Since a move changes only the red and blue
+     * bitboards and the count of jumps, each move (including passes)
+     * pushes their values before the move, and undoing it pops them. */
+
+    /** The undo stack: UNDO_ENTRY values per move not undone. */
+    private long[] _undoStack;
+
+    /** Number of values on _undoStack. */
+    private int _undoSize;
+
+    /** Number of values pushed on the undo stack per move. */
+    private static final int UNDO_ENTRY = 3;
+
+    /** Initial capacity of the undo stack. */
+    private static final int UNDO_CAPACITY = 64 * UNDO_ENTRY;
+
+    /** Bitboard of all squares of the real board. */
+    static final long ALL = (1L << (SIDE * SIDE)) - 1;
+
+    /** Bitboards of the squares in columns a and g. */
+    private static final long COLUMN_A, COLUMN_G;
+
+    /** Number of bits by which the 'to' square of a packed move is
+     *  shifted. */
+    private static final int MOVE_SHIFT = 6;
+
+    /** The Move for each packed move, or null. */
+    private static final Move[] PACKED_MOVES =
+        new Move[1 << (2 * MOVE_SHIFT)];
+
+    /** Bit of each linearized index, or -1 for squares in the border. */
+    private static final int[] BIT_OF = new int[EXTENDED_SIDE * EXTENDED_SIDE];
+
+    /** Linearized index of each bit. */
+    private static final int[] SQUARE_OF = new int[SIDE * SIDE];
+
+    /** For each bit, the bitboard of the squares one step (an extend)
+     *  away from its square. */
+    static final long[] STEP = new long[SIDE * SIDE];
+
+    /** For each bit, the bitboard of the squares two steps (a jump) away
+     *  from its square. */
+    static final long[] JUMP = new long[SIDE * SIDE];
+
+    static {
+        long columnA = 0, columnG = 0;
+        for (int r = 0; r < SIDE; r += 1) {
+            columnA |= 1L << (SIDE * r);
+            columnG |= 1L << (SIDE * r + SIDE - 1);
+        }
+        COLUMN_A = columnA;
+        COLUMN_G = columnG;
+        Arrays.fill(BIT_OF, -1);
+        for (int b = 0; b < SIDE * SIDE; b += 1) {
+            SQUARE_OF[b] = index((char) ('a' + b % SIDE),
+                                 (char) ('1' + b / SIDE));
+            BIT_OF[SQUARE_OF[b]] = b;
+            long self = 1L << b;
+            STEP[b] = spread(self) & ~self;
+            JUMP[b] = spread(spread(self)) & ~spread(self);
+        }
+        for (int from = 0; from < SIDE * SIDE; from += 1) {
+            long to = STEP[from] | JUMP[from];
+            for (; to != 0; to &= to - 1) {
+                int b = Long.numberOfTrailingZeros(to);
+                PACKED_MOVES[packMove(from, b)] =
+                    Move.move((char) ('a' + from % SIDE),
+                              (char) ('1' + from / SIDE),
+                              (char) ('a' + b % SIDE),
+                              (char) ('1' + b / SIDE));
+            }
+        }
+    }
 
 }
@@ -0,0 +1,405 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext ("crib") search for the keys of a machine.  Given a
+ *  ciphertext and a crib (a guess at part of the plaintext), a Bombe tries
+ *  every reflector, every order of rotors from a catalog, and every
+ *  starting setting.  For each, it uses the menu of the crib (the graph
+ *  whose edges join each crib letter to the ciphertext letter at the same
+ *  position) to propagate plugboard hypotheses, and reports the keys for
+ *  which some hypothesis survives, as setting lines.
+ *
+ *  The search uses its own compact state: each worker keeps only the
+ *  rotor settings at each crib position and lazily computed entries of
+ *  the plugboard-free scrambler permutations at those positions, so a
+ *  rejected key typically costs a handful of table lookups.
+ *  @author Aayush Gupta
+ */
+class Bombe {
+
+    /** A bombe for machines with alphabet ALPHA, NUMROTORS rotor slots,
+     *  and PAWLS pawls, trying the rotors in ALLROTORS. */
+    Bombe(Alphabet alpha, int numRotors, int pawls,
+          Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _allRotors = allRotors;
+    }
+
+    /** Report the progress of subsequent searches, as the fraction of keys
+     *  tried, to PROGRESS.  PROGRESS may be called from any thread. */
+    void setProgress(DoubleConsumer progress) {
+        _progress = progress;
+    }
+
+    /** Return the setting lines of all keys consistent with CRIB being the
+     *  plaintext of CIPHERTEXT starting at OFFSET, searching in parallel
+     *  in the common fork/join pool. */
+    List<String> search(String ciphertext, String crib, int offset) {
+        return search(ciphertext, crib, offset, ForkJoinPool.commonPool());
+    }
+
+    /** Return the setting lines of all keys consistent with CRIB being the
+     *  plaintext of CIPHERTEXT starting at OFFSET, searching in parallel
+     *  on POOL.  Each setting line gives the plugboard cables deduced from
+     *  the menu; letters not mentioned are either unplugged or not
+     *  determined by the crib. */
+    List<String> search(String ciphertext, String crib, int offset,
+                        ForkJoinPool pool) {
+        if (offset < 0 || offset + crib.length() > ciphertext.length()
+            || crib.isEmpty()) {
+            throw error("crib does not fit the ciphertext");
+        }
+        int m = crib.length();
+        int[] plain = new int[m], cipher = new int[m];
+        for (int j = 0; j < m; j += 1) {
+            plain[j] = _alphabet.toInt(crib.charAt(j));
+            cipher[j] = _alphabet.toInt(ciphertext.charAt(offset + j));
+            if (plain[j] == cipher[j]) {
+                return Collections.emptyList();
+            }
+        }
+        _plain = plain;
+        _cipher = cipher;
+        _offset = offset;
+        _testLetter = mostConnected(plain, cipher);
+
+        List<String[]> orders = rotorOrders(_allRotors, _numRotors, _pawls);
+        _machines = new Machine[orders.size()];
+        for (int k = 0; k < _machines.length; k += 1) {
+            _machines[k] = new Machine(_alphabet, _numRotors, _pawls,
+                                       _allRotors);
+            _machines[k].insertRotors(orders.get(k));
+        }
+
+        _found = new ConcurrentLinkedQueue<>();
+        _done = new AtomicLong();
+        int size = _alphabet.size();
+        _units = (long) _machines.length * size;
+        if (_units > 0) {
+            pool.invoke(new SearchTask(0, _units));
+        }
+        List<String> result = new ArrayList<>(_found);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the names of the rotors, indexed by slot, of every
+     *  arrangement of distinct rotors from ALLROTORS that fits a machine
+     *  with NUMROTORS slots and PAWLS pawls: a reflector that is an
+     *  involution in slot 0, non-moving rotors in the slots without
+     *  pawls, and moving rotors in the others. */
+    static List<String[]> rotorOrders(Collection<Rotor> allRotors,
+                                      int numRotors, int pawls) {
+        List<String[]> orders = new ArrayList<>();
+        arrangements(allRotors, numRotors, pawls, new String[numRotors], 0,
+                     orders);
+        return orders;
+    }
+
+    /** Add to ORDERS every arrangement of distinct rotors from ALLROTORS
+     *  that fits a machine with NUMROTORS slots and PAWLS pawls and that
+     *  completes NAMES from slot K on. */
+    private static void arrangements(Collection<Rotor> allRotors,
+                                     int numRotors, int pawls,
+                                     String[] names, int k,
+                                     List<String[]> orders) {
+        if (k == numRotors) {
+            orders.add(names.clone());
+            return;
+        }
+        for (Rotor rotor : allRotors) {
+            boolean fits;
+            if (k == 0) {
+                fits = rotor.reflecting() && involution(rotor);
+            } else if (k < numRotors - pawls) {
+                fits = !rotor.reflecting() && !rotor.rotates();
+            } else {
+                fits = rotor.rotates();
+            }
+            if (fits && !Arrays.asList(names).subList(0, k)
+                .contains(rotor.name())) {
+                names[k] = rotor.name();
+                arrangements(allRotors, numRotors, pawls, names, k + 1,
+                             orders);
+            }
+        }
+    }
+
+    /** Return true iff the permutation of ROTOR is its own inverse, so
+     *  that every scrambler that uses it as a reflector is, too. */
+    private static boolean involution(Rotor rotor) {
+        Permutation perm = rotor.permutation();
+        for (int x = 0; x < perm.size(); x += 1) {
+            if (perm.permute(perm.permute(x)) != x) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the letter that occurs most often in PLAIN and CIPHER, which
+     *  gives the most constraints to propagate from. */
+    private int mostConnected(int[] plain, int[] cipher) {
+        int[] degree = new int[_alphabet.size()];
+        int best = plain[0];
+        for (int j = 0; j < plain.length; j += 1) {
+            degree[plain[j]] += 1;
+            degree[cipher[j]] += 1;
+        }
+        for (int x = 0; x < degree.length; x += 1) {
+            if (degree[x] > degree[best]) {
+                best = x;
+            }
+        }
+        return best;
+    }
+
+    /** A fork/join task that searches a range of work units.  Unit U is
+     *  rotor order U / (alphabet size) with the leftmost non-reflector
+     *  rotor at setting U % (alphabet size). */
+    private class SearchTask extends RecursiveAction {
+
+        /** A task searching units LO through HI-1. */
+        SearchTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new SearchTask(_lo, mid), new SearchTask(mid, _hi));
+                return;
+            }
+            int size = _alphabet.size();
+            Worker worker = new Worker(_machines[(int) (_lo / size)]);
+            worker.searchUnit((int) (_lo % size));
+            long done = _done.incrementAndGet();
+            DoubleConsumer progress = _progress;
+            if (progress != null) {
+                progress.accept((double) done / _units);
+            }
+        }
+
+        /** Range of units searched. */
+        private final long _lo, _hi;
+    }
+
+    /** The state of the search of one rotor order by one thread. */
+    private class Worker {
+
+        /** A worker searching keys that use the rotors of MACHINE. */
+        Worker(Machine machine) {
+            int m = _plain.length;
+            int size = _alphabet.size();
+            _machine = machine;
+            _posns = new int[m][_numRotors];
+            _scrambler = new int[m][size];
+            _stamp = new int[m][size];
+            _stecker = new int[size];
+            _queue = new int[2 * size];
+            _edges = new int[size][];
+            int[] counts = new int[size];
+            for (int j = 0; j < m; j += 1) {
+                counts[_plain[j]] += 1;
+                counts[_cipher[j]] += 1;
+            }
+            for (int x = 0; x < size; x += 1) {
+                _edges[x] = new int[counts[x]];
+                counts[x] = 0;
+            }
+            for (int j = 0; j < m; j += 1) {
+                _edges[_plain[j]][counts[_plain[j]]++] = j;
+                _edges[_cipher[j]][counts[_cipher[j]]++] = j;
+            }
+        }
+
+        /** Try every key whose leftmost non-reflector rotor is at
+         *  FIRST. */
+        void searchUnit(int first) {
+            int size = _alphabet.size();
+            int[] start = new int[_numRotors];
+            start[1] = first;
+            while (true) {
+                tryKey(start);
+                int k = _numRotors - 1;
+                while (k > 1 && start[k] == size - 1) {
+                    start[k] = 0;
+                    k -= 1;
+                }
+                if (k == 1) {
+                    return;
+                }
+                start[k] += 1;
+            }
+        }
+
+        /** Try the key whose starting settings are START, indexed by
+         *  slot. */
+        private void tryKey(int[] start) {
+            int[] posn = start.clone();
+            _machine.jump(posn, _offset);
+            for (int j = 0; j < _plain.length; j += 1) {
+                _machine.step(posn);
+                System.arraycopy(posn, 0, _posns[j], 0, _numRotors);
+            }
+            _generation += 1;
+            int size = _alphabet.size();
+            for (int h = 0; h < size; h += 1) {
+                if (consistent(h)) {
+                    _found.add(settingLine(start));
+                }
+            }
+        }
+
+        /** Return true iff the hypothesis that the test letter is plugged
+         *  to H leads to no contradiction, leaving the deduced plugboard in
+         *  _stecker. */
+        private boolean consistent(int h) {
+            Arrays.fill(_stecker, -1);
+            int head = 0, tail = 0;
+            if (!plug(_testLetter, h)) {
+                return false;
+            }
+            _queue[tail++] = _testLetter;
+            if (h != _testLetter) {
+                _queue[tail++] = h;
+            }
+            while (head < tail) {
+                int a = _queue[head++];
+                for (int j : _edges[a]) {
+                    int b = _plain[j] == a ? _cipher[j] : _plain[j];
+                    int v = scramble(j, _stecker[a]);
+                    int before = _stecker[b];
+                    int partnerBefore = _stecker[v];
+                    if (!plug(b, v)) {
+                        return false;
+                    }
+                    if (before < 0) {
+                        _queue[tail++] = b;
+                    }
+                    if (partnerBefore < 0 && v != b) {
+                        _queue[tail++] = v;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that A and B are joined by the plugboard (or that A is
+         *  unplugged if A == B), returning false if that contradicts what
+         *  is already recorded. */
+        private boolean plug(int a, int b) {
+            if (_stecker[a] >= 0 || _stecker[b] >= 0) {
+                return _stecker[a] == b && _stecker[b] == a;
+            }
+            _stecker[a] = b;
+            _stecker[b] = a;
+            return true;
+        }
+
+        /** Return the plugboard-free conversion of X at crib position J,
+         *  computing and caching it if necessary. */
+        private int scramble(int j, int x) {
+            if (_stamp[j][x] != _generation) {
+                _scrambler[j][x] = _machine.convertAt(x, _posns[j]);
+                _stamp[j][x] = _generation;
+            }
+            return _scrambler[j][x];
+        }
+
+        /** Return the setting line for my rotors at starting settings
+         *  START, with the cables in _stecker. */
+        private String settingLine(int[] start) {
+            StringBuilder line = new StringBuilder("*");
+            for (int i = 0; i < _numRotors; i += 1) {
+                line.append(' ').append(_machine.getRotor(i).name());
+            }
+            line.append(' ');
+            for (int i = 1; i < _numRotors; i += 1) {
+                line.append(_alphabet.toChar(start[i]));
+            }
+            for (int x = 0; x < _stecker.length; x += 1) {
+                if (_stecker[x] > x) {
+                    line.append(" (").append(_alphabet.toChar(x))
+                        .append(_alphabet.toChar(_stecker[x])).append(')');
+                }
+            }
+            return line.toString();
+        }
+
+        /** Machine, without plugboard, whose rotors are being tried. */
+        private final Machine _machine;
+
+        /** Rotor settings at each crib position for the current key. */
+        private final int[][] _posns;
+
+        /** Cached scrambler entries for each crib position. */
+        private final int[][] _scrambler;
+
+        /** _generation when each _scrambler entry was computed. */
+        private final int[][] _stamp;
+
+        /** Incremented for each key tried, invalidating _scrambler. */
+        private int _generation;
+
+        /** Deduced plugboard partner of each letter, or -1. */
+        private final int[] _stecker;
+
+        /** Letters whose consequences remain to be propagated. */
+        private final int[] _queue;
+
+        /** For each letter, the crib positions at which it occurs. */
+        private final int[][] _edges;
+    }
+
+    /** Common alphabet of the machines searched. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of the machines searched. */
+    private final int _numRotors, _pawls;
+
+    /** Catalog of rotors from which keys are drawn. */
+    private final Collection<Rotor> _allRotors;
+
+    /** Receives the fraction of the search completed, or null. */
+    private volatile DoubleConsumer _progress;
+
+    /** Crib and corresponding ciphertext of the current search, as
+     *  indices. */
+    private int[] _plain, _cipher;
+
+    /** Position of the crib in the ciphertext. */
+    private int _offset;
+
+    /** Letter from which hypotheses are propagated. */
+    private int _testLetter;
+
+    /** A machine, without plugboard, for each rotor order searched. */
+    private Machine[] _machines;
+
+    /** Total number of work units in the current search. */
+    private long _units;
+
+    /** Number of work units completed. */
+    private AtomicLong _done;
+
+    /** Setting lines of the keys found so far. */
+    private ConcurrentLinkedQueue<String> _found;
+
+}
@@ -0,0 +1,142 @@
+package enigma;
+
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Parsing of configurations and setting lines for machines over the
+ *  alphabet of bytes (Alphabet.bytes()).  Since every character is a byte
+ *  value, bytes are written as pairs of hexadecimal digits.  A byte
+ *  configuration is like a text configuration without the alphabet line:
+ *  the number of slots and of pawls, then rotor descriptions such as
+ *
+ *      R1 R (00ff) (017e) ...
+ *      W3 M0a3f (000a3f) (11) ...
+ *
+ *  where "M0a3f" gives notches at bytes 0a and 3f, and the cycle (000a3f)
+ *  maps 00 to 0a, 0a to 3f, and 3f to 00.  A byte setting line is like a
+ *  text setting line, with the initial settings and plugboard in hex:
+ *
+ *      * R1 W1 W2 W3 W4 0a1b2c3d (41ff) (0d0a)
+ *
+ *  @author Aayush Gupta
+ */
+class ByteConfig {
+
+    /** Return a rotor of the byte alphabet ALPHA, reading its description
+     *  from CONFIG. */
+    static Rotor readRotor(Scanner config, Alphabet alpha) {
+        try {
+            String name = config.next();
+            String type = config.next();
+            StringBuilder cycles = new StringBuilder();
+            while (config.hasNext("\\(.*\\)")) {
+                cycles.append(config.next("\\(.*\\)"));
+            }
+            Permutation perm = cycles(cycles.toString(), alpha);
+            switch (type.charAt(0)) {
+            case 'R':
+                return new Reflector(name, perm);
+            case 'N':
+                return new FixedRotor(name, perm);
+            case 'M':
+                return new MovingRotor(name, perm,
+                                       bytes(type.substring(1)));
+            default:
+                throw error("bad rotor type %s", type);
+            }
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Return the setup described by the byte setting line LINE for a
+     *  machine like MACHINE, whose alphabet must be the byte alphabet. */
+    static Setup parseSetting(String line, Machine machine) {
+        String[] tokens = line.strip().split("\\s+", machine.numRotors() + 3);
+        int numRotors = machine.numRotors();
+        if (!tokens[0].equals("*") || tokens.length < numRotors + 2) {
+            throw error("Incorrect number of rotors.");
+        }
+        int[] rotors = new int[numRotors];
+        for (int i = 0; i < numRotors; i++) {
+            rotors[i] = machine.rotorIndex(tokens[i + 1]);
+        }
+        String settings = bytes(tokens[numRotors + 1]);
+        if (settings.length() != numRotors - 1) {
+            throw error("Please enter valid number of settings.");
+        }
+        int[] positions = new int[numRotors];
+        for (int i = 1; i < numRotors; i++) {
+            positions[i] = settings.charAt(i - 1);
+        }
+        Permutation plugboard = null;
+        if (tokens.length > numRotors + 2) {
+            plugboard = cycles(tokens[numRotors + 2], machine.alphabet());
+        }
+        return new Setup(rotors, positions, plugboard);
+    }
+
+    /** Return the permutation of the byte alphabet ALPHA given by CYCLES,
+     *  parenthesized cycles of hexadecimal byte values, separated by
+     *  optional whitespace.  No byte may appear more than once. */
+    static Permutation cycles(String cycles, Alphabet alpha) {
+        int[] table = new int[alpha.size()];
+        boolean[] seen = new boolean[alpha.size()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = i;
+        }
+        int p = 0;
+        while (true) {
+            while (p < cycles.length()
+                   && Character.isWhitespace(cycles.charAt(p))) {
+                p += 1;
+            }
+            if (p == cycles.length()) {
+                break;
+            }
+            int close = cycles.indexOf(')', p);
+            if (cycles.charAt(p) != '(' || close < 0) {
+                throw error("bad byte cycles: %s", cycles);
+            }
+            String cycle = bytes(cycles.substring(p + 1, close));
+            if (cycle.isEmpty()) {
+                throw error("empty cycle");
+            }
+            for (int j = 0; j < cycle.length(); j++) {
+                int b = cycle.charAt(j);
+                if (seen[b]) {
+                    throw error("byte %02x appears in more than one place"
+                                + " in the cycles", b);
+                }
+                seen[b] = true;
+                table[b] = cycle.charAt((j + 1) % cycle.length());
+            }
+            p = close + 1;
+        }
+        return new Permutation(table, alpha);
+    }
+
+    /** Return the bytes given by HEX, pairs of hexadecimal digits, as the
+     *  characters of a String. */
+    static String bytes(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw error("odd number of hex digits in %s", hex);
+        }
+        char[] result = new char[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), HEX);
+            int lo = Character.digit(hex.charAt(2 * i + 1), HEX);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hex digits in %s", hex);
+            }
+            result[i] = (char) (hi * HEX + lo);
+        }
+        return new String(result);
+    }
+
+    /** Radix of byte values in configurations and setting lines. */
+    private static final int HEX = 16;
+
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A machine over the byte alphabet that converts ByteBuffers directly.
+ *  It copies the rotors, settings, and plugboard of a Machine whose
+ *  alphabet is Alphabet.bytes() and then keeps its own settings, using the
+ *  machine only to decide how the rotors step.  The plugboard is folded
+ *  into per-setting tables for the fast rotor, and the rotors between the
+ *  fast one and the reflector into one table that changes only when one
+ *  of them moves, so converting a byte between such moves is three byte[]
+ *  lookups.
+ *  @author Aayush Gupta
+ */
+class ByteMachine {
+
+    /** A byte machine with the rotors, current settings, and plugboard of
+     *  MACHINE, which is not changed. */
+    ByteMachine(Machine machine) {
+        if (!machine.alphabet().isBytes()) {
+            throw error("byte machine requires the byte alphabet");
+        }
+        int n = Alphabet.BYTE_VALUES;
+        _machine = machine;
+        _last = machine.numRotors() - 1;
+        _posn = machine.settings();
+        Rotor fast = machine.getRotor(_last);
+        _fastMoves = fast.rotates() && machine.numPawls() > 0;
+
+        Permutation plugboard = machine.plugboard();
+        _enter = new byte[n * n];
+        _leave = new byte[n * n];
+        for (int f = 0; f < n; f++) {
+            for (int c = 0; c < n; c++) {
+                int p = plugboard == null ? c : plugboard.permute(c);
+                _enter[f * n + c] = (byte) fast.convertForward(p, f);
+                int b = fast.convertBackward(c, f);
+                _leave[f * n + c] =
+                    (byte) (plugboard == null ? b : plugboard.permute(b));
+            }
+        }
+
+        int first = machine.numRotors() - machine.numPawls();
+        Permutation core = machine.getRotor(0).permutation()
+            .conjugateByRotation(_posn[0]);
+        for (int i = 1; i < first && i < _last; i++) {
+            Permutation slot = machine.getRotor(i).permutation()
+                .conjugateByRotation(_posn[i]);
+            core = slot.compose(core).compose(slot.inverse());
+        }
+        _core = new int[n];
+        for (int c = 0; c < n; c++) {
+            _core[c] = core.permute(c);
+        }
+        _first = Math.min(first, _last);
+        _forward = new byte[_last][];
+        _backward = new byte[_last][];
+        for (int i = _first; i < _last; i++) {
+            Rotor rotor = machine.getRotor(i);
+            _forward[i] = new byte[n * n];
+            _backward[i] = new byte[n * n];
+            for (int s = 0; s < n; s++) {
+                for (int c = 0; c < n; c++) {
+                    _forward[i][s * n + c] = (byte) rotor.convertForward(c, s);
+                    _backward[i][s * n + c] =
+                        (byte) rotor.convertBackward(c, s);
+                }
+            }
+        }
+        _inner = new byte[n];
+        compileInner();
+    }
+
+    /** Return my current settings, indexed by slot. */
+    int[] settings() {
+        return _posn.clone();
+    }
+
+    /** Convert the bytes remaining in IN, or as many as there is room for
+     *  in OUT, putting the results in OUT, and advancing both buffers and
+     *  my settings.  IN and OUT may share content, provided they have the
+     *  same position.  Returns the number of bytes converted. */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        int n = Alphabet.BYTE_VALUES;
+        int len = Math.min(in.remaining(), out.remaining());
+        int src = in.position(), dst = out.position();
+        int done = 0;
+        while (done < len) {
+            int quiet = _machine.quietSteps(_posn, len - done);
+            if (quiet == 0) {
+                if (_machine.step(_posn)) {
+                    compileInner();
+                }
+                quiet = 1;
+            } else if (_fastMoves) {
+                _posn[_last] = (_posn[_last] + 1) % n;
+            }
+            int fast = _posn[_last];
+            for (int k = 0; k < quiet; k++) {
+                int base = fast * n;
+                int c = _enter[base + (in.get(src + done + k) & 0xff)];
+                c = _inner[c & 0xff];
+                out.put(dst + done + k, _leave[base + (c & 0xff)]);
+                if (_fastMoves && k + 1 < quiet) {
+                    fast = (fast + 1) & (n - 1);
+                }
+            }
+            _posn[_last] = fast;
+            done += quiet;
+        }
+        in.position(src + len);
+        out.position(dst + len);
+        return len;
+    }
+
+    /** Recompute _inner for the current settings. */
+    private void compileInner() {
+        int n = Alphabet.BYTE_VALUES;
+        for (int x = 0; x < n; x++) {
+            int c = x;
+            for (int i = _last - 1; i >= _first; i--) {
+                c = _forward[i][_posn[i] * n + c] & 0xff;
+            }
+            c = _core[c];
+            for (int i = _first; i < _last; i++) {
+                c = _backward[i][_posn[i] * n + c] & 0xff;
+            }
+            _inner[x] = (byte) c;
+        }
+    }
+
+    /** The machine whose rotors I copy, used to step my settings. */
+    private final Machine _machine;
+
+    /** Index of the fast rotor's slot. */
+    private final int _last;
+
+    /** First slot with a pawl that is not the fast rotor's, or _last if
+     *  there is none. */
+    private final int _first;
+
+    /** True iff the fast rotor advances on each byte. */
+    private final boolean _fastMoves;
+
+    /** My current settings, indexed by slot. */
+    private final int[] _posn;
+
+    /** For fast-rotor setting F, the plugboard followed by the fast rotor
+     *  applied to byte C, at F * 256 + C. */
+    private final byte[] _enter;
+
+    /** For fast-rotor setting F, the inverse of the fast rotor followed by
+     *  the plugboard applied to byte C, at F * 256 + C. */
+    private final byte[] _leave;
+
+    /** For each slot with a pawl other than the fast rotor's, the
+     *  conversion of byte C by its rotor at setting S, at S * 256 + C, or
+     *  null for other slots. */
+    private final byte[][] _forward;
+
+    /** As for _forward, for the inverse conversions. */
+    private final byte[][] _backward;
+
+    /** The rotors in the slots without pawls, to the reflector and
+     *  back. */
+    private final int[] _core;
+
+    /** The rotors between the fast one and the reflector, and back, at
+     *  their current settings. */
+    private final byte[] _inner;
+
+}
@@ -0,0 +1,193 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/** A machine configuration in compiled, binary form, so that it can be
+ *  loaded without parsing its source.  A compiled configuration records
+ *  the CRC-32 checksum of the source configuration it was compiled from,
+ *  and is used only if the source still has that checksum.
+ *
+ *  The file holds, in big-endian order: the int MAGIC, the int VERSION, the
+ *  long checksum, the alphabet (an int length followed by its chars), the
+ *  ints numRotors and numPawls, and the int number of rotors followed by
+ *  each rotor.  A rotor is its type byte ('R', 'N', or 'M'), its name and
+ *  notches (each a short length followed by chars), and the image of each
+ *  index of the alphabet under its permutation (one int each).  Rotors
+ *  appear in catalog order, which determines the indices used by
+ *  Machine.rotorIndex.
+ *  @author Aayush Gupta
+ */
+class CompiledConfig {
+
+    /** First four bytes of every compiled configuration: "ENGC". */
+    static final int MAGIC = 0x454e4743;
+
+    /** Format version written by this class. */
+    static final int VERSION = 1;
+
+    /** A compiled configuration with alphabet ALPHABET, NUMROTORS slots,
+     *  PAWLS pawls, and the available rotors ROTORS. */
+    CompiledConfig(Alphabet alphabet, int numRotors, int pawls,
+                   List<Rotor> rotors) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _rotors = rotors;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my available rotors, in catalog order. */
+    List<Rotor> rotors() {
+        return _rotors;
+    }
+
+    /** Return the CRC-32 checksum of SOURCE. */
+    static long checksum(byte[] source) {
+        CRC32 crc = new CRC32();
+        crc.update(source);
+        return crc.getValue();
+    }
+
+    /** Return the compiled configuration in the file FILE, or null if
+     *  there is none, it is not a compiled configuration in the current
+     *  format, or it was not compiled from a source with checksum
+     *  CHECKSUM. */
+    static CompiledConfig load(Path file, long checksum) {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            ByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC
+                || buf.getInt() != VERSION || buf.getLong() != checksum) {
+                return null;
+            }
+            Alphabet alphabet = new Alphabet(getString(buf, buf.getInt()));
+            int numRotors = buf.getInt();
+            int pawls = buf.getInt();
+            int count = buf.getInt();
+            List<Rotor> rotors = new ArrayList<>(count);
+            int[] table = new int[alphabet.size()];
+            for (int i = 0; i < count; i++) {
+                byte type = buf.get();
+                String name = getString(buf, buf.getShort());
+                String notches = getString(buf, buf.getShort());
+                buf.asIntBuffer().get(table);
+                buf.position(buf.position() + 4 * table.length);
+                Permutation perm = new Permutation(table, alphabet);
+                switch (type) {
+                case 'R':
+                    rotors.add(new Reflector(name, perm));
+                    break;
+                case 'N':
+                    rotors.add(new FixedRotor(name, perm));
+                    break;
+                case 'M':
+                    rotors.add(new MovingRotor(name, perm, notches));
+                    break;
+                default:
+                    return null;
+                }
+            }
+            return new CompiledConfig(alphabet, numRotors, pawls, rotors);
+        } catch (IOException | BufferUnderflowException
+                 | IllegalArgumentException | EnigmaException excp) {
+            return null;
+        }
+    }
+
+    /** Write me to the file FILE, recording CHECKSUM as the checksum of my
+     *  source.  The file is replaced atomically, so that concurrent
+     *  readers see either the old or the new contents. */
+    void save(Path file, long checksum) throws IOException {
+        int size = _alphabet.size();
+        int length = HEADER_SIZE + 4 + 2 * size + 12;
+        for (Rotor rotor : _rotors) {
+            length += 1 + 2 + 2 * rotor.name().length()
+                + 2 + 2 * rotor.notches().length() + 4 * size;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(checksum);
+        buf.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buf.putChar(_alphabet.toChar(i));
+        }
+        buf.putInt(_numRotors).putInt(_pawls).putInt(_rotors.size());
+        for (Rotor rotor : _rotors) {
+            buf.put((byte) (rotor.reflecting() ? 'R'
+                            : rotor.rotates() ? 'M' : 'N'));
+            putString(buf, rotor.name());
+            putString(buf, rotor.notches());
+            Permutation perm = rotor.permutation();
+            for (int i = 0; i < size; i++) {
+                buf.putInt(perm.permute(i));
+            }
+        }
+        buf.flip();
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                                         "enigma", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Return the next LEN chars of BUF as a String. */
+    private static String getString(ByteBuffer buf, int len) {
+        char[] chars = new char[len];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + 2 * len);
+        return new String(chars);
+    }
+
+    /** Append the length of S, as a short, and its chars to BUF. */
+    private static void putString(ByteBuffer buf, String s) {
+        buf.putShort((short) s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /** Size of the magic number, version, and checksum. */
+    private static final int HEADER_SIZE = 16;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls. */
+    private final int _numRotors, _pawls;
+
+    /** Available rotors, in catalog order. */
+    private final List<Rotor> _rotors;
+
+}
@@ -0,0 +1,162 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An index over a collection of ciphertexts that finds the offsets at
+ *  which a crib (a guessed fragment of plaintext) may lie.  Since a machine
+ *  never converts a character to itself, a crib cannot lie at an offset
+ *  where any of its characters equals the ciphertext character beneath it.
+ *
+ *  For each ciphertext and each character C of the alphabet, the index
+ *  holds a bit set of the positions at which C occurs.  The offsets ruled
+ *  out for a crib are then the union, over crib positions J, of the set
+ *  for the crib's J'th character shifted down by J, which is computed 64
+ *  offsets at a time.  Building the index scans each ciphertext once;
+ *  queries do not rescan it.
+ *  @author Aayush Gupta
+ */
+class CribIndex {
+
+    /** An empty index of ciphertexts in ALPHABET. */
+    CribIndex(Alphabet alphabet) {
+        _alphabet = alphabet;
+    }
+
+    /** Add CIPHERTEXT, all of whose characters must be in my alphabet, to
+     *  the index, and return its number (numbering from 0). */
+    int add(String ciphertext) {
+        int len = ciphertext.length();
+        int words = (len + 63) >>> 6;
+        long[] bits = new long[_alphabet.size() * words];
+        for (int i = 0; i < len; i += 1) {
+            int c = _alphabet.toInt(ciphertext.charAt(i));
+            bits[c * words + (i >>> 6)] |= 1L << i;
+        }
+        _lengths.add(len);
+        _bits.add(bits);
+        return _bits.size() - 1;
+    }
+
+    /** Return the number of ciphertexts in the index. */
+    int size() {
+        return _bits.size();
+    }
+
+    /** Return the length of ciphertext number MSG. */
+    int length(int msg) {
+        return _lengths.get(msg);
+    }
+
+    /** Return, in increasing order, the offsets in ciphertext number MSG
+     *  at which CRIB may lie. */
+    int[] alignments(int msg, String crib) {
+        long[] valid = validOffsets(msg, crib);
+        int n = 0;
+        for (long word : valid) {
+            n += Long.bitCount(word);
+        }
+        int[] result = new int[n];
+        n = 0;
+        for (int w = 0; w < valid.length; w += 1) {
+            for (long word = valid[w]; word != 0; word &= word - 1) {
+                result[n] = (w << 6) + Long.numberOfTrailingZeros(word);
+                n += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the offsets at which CRIB may lie in each ciphertext in the
+     *  index, indexed by ciphertext number. */
+    int[][] alignments(String crib) {
+        int[][] result = new int[size()][];
+        for (int msg = 0; msg < result.length; msg += 1) {
+            result[msg] = alignments(msg, crib);
+        }
+        return result;
+    }
+
+    /** Return the number of offsets in ciphertext number MSG at which CRIB
+     *  may lie. */
+    int count(int msg, String crib) {
+        int n = 0;
+        for (long word : validOffsets(msg, crib)) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    /** Return the offsets in CIPHERTEXT at which CRIB, both in ALPHABET,
+     *  may lie, without keeping an index. */
+    static int[] alignments(Alphabet alphabet, String ciphertext,
+                            String crib) {
+        CribIndex index = new CribIndex(alphabet);
+        return index.alignments(index.add(ciphertext), crib);
+    }
+
+    /** Return the set of offsets in ciphertext number MSG at which CRIB,
+     *  which must not be empty, may lie, as a bit set with one bit per
+     *  ciphertext position. */
+    private long[] validOffsets(int msg, String crib) {
+        if (msg < 0 || msg >= size()) {
+            throw error("no ciphertext numbered %d", msg);
+        }
+        int len = _lengths.get(msg);
+        long[] bits = _bits.get(msg);
+        int words = (len + 63) >>> 6;
+        long[] invalid = new long[words];
+        int m = crib.length();
+        if (m == 0) {
+            throw error("empty crib");
+        }
+        if (m > len) {
+            return invalid;
+        }
+        for (int j = 0; j < m; j += 1) {
+            int c = _alphabet.toInt(crib.charAt(j));
+            orShifted(invalid, bits, c * words, words, j);
+        }
+        int last = len - m;
+        for (int w = 0; w < words; w += 1) {
+            invalid[w] = ~invalid[w];
+        }
+        int lastWord = last >>> 6;
+        invalid[lastWord] &= -1L >>> (63 - (last & 63));
+        Arrays.fill(invalid, lastWord + 1, words, 0);
+        return invalid;
+    }
+
+    /** Set ACC to the union of ACC and the bit set of WORDS words starting
+     *  at SRC[BASE], shifted toward bit 0 by SHIFT bits. */
+    private static void orShifted(long[] acc, long[] src, int base,
+                                  int words, int shift) {
+        int ws = shift >>> 6, bs = shift & 63;
+        int n = words - ws;
+        if (bs == 0) {
+            for (int w = 0; w < n; w += 1) {
+                acc[w] |= src[base + w + ws];
+            }
+        } else {
+            for (int w = 0; w < n - 1; w += 1) {
+                acc[w] |= (src[base + w + ws] >>> bs)
+                    | (src[base + w + ws + 1] << (64 - bs));
+            }
+            acc[n - 1] |= src[base + words - 1] >>> bs;
+        }
+    }
+
+    /** Alphabet of the indexed ciphertexts. */
+    private final Alphabet _alphabet;
+
+    /** Length of each ciphertext, indexed by number. */
+    private final ArrayList<Integer> _lengths = new ArrayList<>();
+
+    /** For each ciphertext, indexed by number, the positions of each
+     *  character: bit I of word C * W + I / 64, where W is the number of
+     *  words per character, is set iff character C is at position I. */
+    private final ArrayList<long[]> _bits = new ArrayList<>();
+
+}
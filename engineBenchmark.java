@@ -0,0 +1,382 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static enigma.EnigmaException.*;
+
+/** JMH benchmarks of the Enigma engine on synthetic configurations.  Each
+ *  benchmark processes CHARS characters per invocation, so throughput is
+ *  reported in characters per second.  Running main adds the GC profiler,
+ *  which reports the allocation rate alongside throughput.  Setting up
+ *  also checks that LaneConversion conforms to Machine.convert on the
+ *  messages it benchmarks, failing the trial if it does not.
+ *  @author Aayush Gupta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineBenchmark {
+
+    /** Number of characters processed by each benchmark invocation. */
+    static final int CHARS = 1 << 12;
+
+    /** Number of full groups of lanes converted by the lane benchmark. */
+    static final int LANE_GROUPS = 4;
+
+    /** Characters from which synthetic alphabets are drawn: the printable
+     *  ASCII characters other than parentheses and '*'. */
+    private static final String SYMBOLS;
+
+    static {
+        StringBuilder symbols = new StringBuilder();
+        for (char c = '!'; c <= '~'; c += 1) {
+            if (c != '(' && c != ')' && c != '*') {
+                symbols.append(c);
+            }
+        }
+        SYMBOLS = symbols.toString();
+    }
+
+    /** Size of the alphabet. */
+    @Param({ "26", "52", "90" })
+    public int alphabetSize;
+
+    /** Number of rotor slots, including the reflector. */
+    @Param({ "5", "8" })
+    public int rotors;
+
+    /** Number of pawls. */
+    @Param({ "1", "3" })
+    public int pawls;
+
+    /** Fraction of the alphabet connected by plugboard cables. */
+    @Param({ "0.0", "0.5", "1.0" })
+    public double plugboardDensity;
+
+    /** Run all benchmarks in this class with the GC profiler. */
+    public static void main(String... args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                   .include(EngineBenchmark.class.getSimpleName())
+                   .addProfiler(GCProfiler.class)
+                   .build()).run();
+    }
+
+    /** Build a random configuration and machine for the current
+     *  parameters, along with a random message and the files used by the
+     *  end-to-end benchmark. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(alphabetSize * 31 + rotors);
+        String chars = SYMBOLS.substring(0, alphabetSize);
+        _alphabet = new Alphabet(chars);
+
+        StringBuilder config = new StringBuilder();
+        config.append(chars).append('\n');
+        config.append(rotors).append(' ').append(pawls).append('\n');
+        List<Rotor> all = new ArrayList<>();
+        String[] names = new String[rotors];
+        names[0] = "R0";
+        String reflector = involution(chars, random);
+        config.append(" R0 R ").append(reflector).append('\n');
+        all.add(new Reflector("R0", new Permutation(reflector, _alphabet)));
+        for (int i = 1; i < rotors; i += 1) {
+            String cycles = cycles(chars, random);
+            names[i] = "W" + i;
+            Permutation perm = new Permutation(cycles, _alphabet);
+            if (i < rotors - pawls) {
+                config.append(" W").append(i).append(" N ");
+                all.add(new FixedRotor(names[i], perm));
+            } else {
+                String notches = chars.substring(0, 1 + i % 2);
+                config.append(" W").append(i).append(" M")
+                    .append(notches).append(' ');
+                all.add(new MovingRotor(names[i], perm, notches));
+            }
+            config.append(cycles).append('\n');
+        }
+
+        StringBuilder plugs = new StringBuilder();
+        String shuffled = shuffle(chars, random);
+        int cables = (int) (plugboardDensity * alphabetSize / 2);
+        for (int i = 0; i < cables; i += 1) {
+            plugs.append('(').append(shuffled, 2 * i, 2 * i + 2)
+                .append(") ");
+        }
+        StringBuilder positions = new StringBuilder();
+        for (int i = 1; i < rotors; i += 1) {
+            positions.append(chars.charAt(random.nextInt(alphabetSize)));
+        }
+        String setting = "* " + String.join(" ", names) + " " + positions
+            + " " + plugs.toString().trim();
+
+        _machine = new Machine(_alphabet, rotors, pawls, all);
+        _machine.setCompiled(true);
+        _machine.insertRotors(names);
+        _machine.setRotors(positions.toString());
+        _machine.setPlugboard(new Permutation(plugs.toString(), _alphabet));
+        _permutation = new Permutation(cycles(chars, random), _alphabet);
+        _rotor = all.get(rotors - 1);
+
+        _indices = new int[CHARS];
+        _message = new char[CHARS];
+        for (int i = 0; i < CHARS; i += 1) {
+            _indices[i] = random.nextInt(alphabetSize);
+            _message[i] = chars.charAt(_indices[i]);
+        }
+        _text = new String(_message);
+        _out = new char[CHARS];
+        setUpLanes(all, names, random);
+
+        _configFile = File.createTempFile("enigma", ".conf");
+        _inputFile = File.createTempFile("enigma", ".in");
+        _outputFile = File.createTempFile("enigma", ".out");
+        try (PrintStream out = new PrintStream(_configFile)) {
+            out.print(config);
+        }
+        try (PrintStream out = new PrintStream(_inputFile)) {
+            out.println(setting.trim());
+            for (int i = 0; i < CHARS; i += 64) {
+                out.println(_text.substring(i, i + 64));
+            }
+        }
+    }
+
+    /** Set up LANE_GROUPS groups of machines and messages for the lane
+     *  benchmark, plus one leftover message, as random variants of the
+     *  machine with rotors named NAMES drawn from ALL, using RANDOM, and
+     *  check that converting them in lanes conforms to converting each
+     *  with its machine. */
+    private void setUpLanes(List<Rotor> all, String[] names, Random random) {
+        _lanes = new LaneConversion(_alphabet, rotors, pawls, all);
+        int count = LANE_GROUPS * _lanes.width() + 1;
+        int[] cuts = new int[count + 1];
+        for (int i = 1; i < count; i += 1) {
+            cuts[i] = random.nextInt(CHARS + 1);
+        }
+        cuts[count] = CHARS;
+        Arrays.sort(cuts);
+        _laneMachines = new Machine[count];
+        _laneMessages = new int[count][];
+        _laneLengths = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            Machine machine = new Machine(_alphabet, rotors, pawls, all);
+            machine.insertRotors(names);
+            int[] settings = new int[rotors];
+            for (int k = 1; k < rotors; k += 1) {
+                settings[k] = random.nextInt(alphabetSize);
+            }
+            machine.setRotors(settings);
+            machine.setPlugboard(_machine.plugboard());
+            _laneMachines[i] = machine;
+            _laneLengths[i] = cuts[i + 1] - cuts[i];
+            _laneMessages[i] = Arrays.copyOfRange(_indices, cuts[i],
+                                                  cuts[i + 1] + 1);
+        }
+        if (!_lanes.conforms(_laneMachines, _laneMessages, _laneLengths)) {
+            throw error("lane conversion differs from Machine.convert");
+        }
+    }
+
+    /** Remove the files created by setUp. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _configFile.delete();
+        _inputFile.delete();
+        _outputFile.delete();
+    }
+
+    /** Permutation.permute on every message index. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public int permute() {
+        int sum = 0;
+        for (int p : _indices) {
+            sum += _permutation.permute(p);
+        }
+        return sum;
+    }
+
+    /** Permutation.invert on every message index. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public int invert() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _permutation.invert(c);
+        }
+        return sum;
+    }
+
+    /** Alphabet.toInt on every message character. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public int alphabetToInt() {
+        int sum = 0;
+        for (char c : _message) {
+            sum += _alphabet.toInt(c);
+        }
+        return sum;
+    }
+
+    /** Rotor.convertForward of the fast rotor at a varying setting. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public int rotorConvertForward() {
+        int sum = 0;
+        for (int i = 0; i < CHARS; i += 1) {
+            sum += _rotor.convertForward(_indices[i], i % alphabetSize);
+        }
+        return sum;
+    }
+
+    /** Machine.convert(String) on the whole message. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public void machineConvertString(Blackhole sink) {
+        sink.consume(_machine.convert(_text));
+    }
+
+    /** Machine.convert(char[], int, int, char[]) on the whole message. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public void machineConvertChars(Blackhole sink) {
+        _machine.convert(_message, 0, CHARS, _out);
+        sink.consume(_out);
+    }
+
+    /** LaneConversion.convert on the message, split among machines at
+     *  random settings, converting in lanes if the Vector API is present,
+     *  as it is in this benchmark's fork. */
+    @Benchmark
+    @Fork(value = 1,
+          jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+    @OperationsPerInvocation(CHARS)
+    public void laneConvert(Blackhole sink) {
+        _lanes.convert(_laneMachines, _laneMessages, _laneLengths);
+        sink.consume(_laneMessages);
+    }
+
+    /** Main end to end: read the configuration and convert the message
+     *  file.  This bypasses Main.main, which exits on errors, so that
+     *  errors fail the benchmark rather than ending its fork. */
+    @Benchmark
+    @OperationsPerInvocation(CHARS)
+    public void mainProcess() {
+        new Main(List.of(_configFile.getPath(), _inputFile.getPath(),
+                         _outputFile.getPath())).process();
+    }
+
+    /** Return a random permutation of CHARS in cycle notation, using
+     *  RANDOM. */
+    private static String cycles(String chars, Random random) {
+        String image = shuffle(chars, random);
+        boolean[] done = new boolean[chars.length()];
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < chars.length(); i += 1) {
+            if (!done[i]) {
+                result.append('(');
+                for (int k = i; !done[k];
+                     k = chars.indexOf(image.charAt(k))) {
+                    done[k] = true;
+                    result.append(chars.charAt(k));
+                }
+                result.append(") ");
+            }
+        }
+        return result.toString().trim();
+    }
+
+    /** Return a random pairing of CHARS in cycle notation, using RANDOM.
+     *  If CHARS has odd length, one character is left unpaired. */
+    private static String involution(String chars, Random random) {
+        String shuffled = shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < shuffled.length(); i += 2) {
+            result.append('(').append(shuffled, i, i + 2).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the characters of CHARS in random order, using RANDOM. */
+    private static String shuffle(String chars, Random random) {
+        char[] result = chars.toCharArray();
+        for (int i = result.length - 1; i > 0; i -= 1) {
+            int k = random.nextInt(i + 1);
+            char tmp = result[i];
+            result[i] = result[k];
+            result[k] = tmp;
+        }
+        return new String(result);
+    }
+
+    /** Alphabet of the configuration. */
+    private Alphabet _alphabet;
+
+    /** Machine set up from the configuration. */
+    private Machine _machine;
+
+    /** A random permutation of the alphabet. */
+    private Permutation _permutation;
+
+    /** The machine's fast rotor. */
+    private Rotor _rotor;
+
+    /** The message, as indices and as characters. */
+    private int[] _indices;
+
+    /** The message, as characters. */
+    private char[] _message;
+
+    /** The message, as a String. */
+    private String _text;
+
+    /** Destination for converted characters. */
+    private char[] _out;
+
+    /** Converts the lane benchmark's messages. */
+    private LaneConversion _lanes;
+
+    /** Machines of the lane benchmark, one per message. */
+    private Machine[] _laneMachines;
+
+    /** Messages of the lane benchmark, as indices.  Each has one index
+     *  past its length, which converting must leave alone. */
+    private int[][] _laneMessages;
+
+    /** Lengths of the lane benchmark's messages. */
+    private int[] _laneLengths;
+
+    /** Files used by the end-to-end benchmark. */
+    private File _configFile, _inputFile, _outputFile;
+
+}
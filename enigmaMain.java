@@ -4,10 +4,28 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.file.StandardOpenOption.*;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import ucb.util.CommandArgs;
 
@@ -25,18 +43,73 @@ public final class Main {
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
-     *  standard output. Exits normally if there are no errors in the input;
+     *  standard output.  With --stream, input and output are processed a
+     *  buffer at a time through channels rather than a line at a time.
+     *  With --batch, the sections of the input that begin with each
+     *  setting line are processed concurrently, one machine per worker.
+     *  With --mmap, INPUT is required and is mapped into memory and
+     *  converted in place (also when OUTPUT names the same file as
+     *  INPUT), or into OUTPUT if present, preserving its
+     *  layout: message characters are replaced by their conversions and
+     *  all other bytes are copied.
+     *  With --bytes, CONFIG is a byte configuration (see ByteConfig), and
+     *  the input is a single byte setting line followed by a binary
+     *  payload, all of which is converted; the setting line is copied to
+     *  the output.
+     *  With --serve=ADDRESS, only CONFIG is given; it is read once, and
+     *  then messages are converted for clients connecting to ADDRESS,
+     *  either unix:PATH for a Unix-domain socket or [HOST:]PORT for TCP
+     *  (see EnigmaServer).  Combined with --bytes, CONFIG is a byte
+     *  configuration.
+     *  With --specialize, machines convert with classes generated for
+     *  their rotors (see SpecializedConversion).
+     *  With --cache=FILE, the configuration is loaded from the compiled
+     *  configuration in FILE if that was compiled from the current
+     *  contents of CONFIG, and otherwise is parsed and compiled into FILE.
+     *  With --metrics=SECONDS, counts of characters, messages, setting
+     *  switches, and rotor steps, and message latencies, are kept (see
+     *  EnigmaMetrics), published through JMX, printed on the standard
+     *  error every SECONDS seconds if SECONDS is positive, and printed
+     *  there at the end.  With --serve, the work of every session is
+     *  counted.
+     *  With --verbose, conversions are traced on the standard error;
+     *  --sample=N traces only every Nth character.
+     *  Exits normally if there are no errors in the input;
      *  otherwise with code 1. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --sample=(\\d+) --stream --batch "
+                                + "--mmap --bytes --cache=(.+) --serve=(.+) "
+                                + "--specialize --metrics=(\\d+) "
+                                + "--=(.*){1,3}",
+                                args);
             if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                throw error("Usage: java enigma.Main [--verbose [--sample=N]] "
+                            + "[--stream|--batch|--mmap|--bytes] "
+                            + "[--cache=FILE] [--serve=ADDRESS] "
+                            + "[--specialize] [--metrics=SECONDS] "
+                            + "CONFIG [INPUT [OUTPUT]]");
             }
 
             _verbose = options.contains("--verbose");
+            if (options.contains("--sample")) {
+                _sample = intOption(options, "--sample");
+            }
+            _stream = options.contains("--stream");
+            _batch = options.contains("--batch");
+            _mmap = options.contains("--mmap");
+            _bytes = options.contains("--bytes");
+            _specialize = options.contains("--specialize");
+            if (options.contains("--metrics")) {
+                _metricsPeriod = intOption(options, "--metrics");
+            }
+            if (options.contains("--serve")) {
+                _serve = options.getFirst("--serve");
+            }
+            if (options.contains("--cache")) {
+                _cacheFile = Paths.get(options.getFirst("--cache"));
+            }
             new Main(options.get("--")).process();
             return;
         } catch (EnigmaException excp) {
@@ -45,10 +118,48 @@ public final class Main {
         System.exit(1);
     }
 
+    /** Return the value of the option NAME in OPTIONS, which consists
+     *  of decimal digits, as an int. */
+    private static int intOption(CommandArgs options, String name) {
+        String value = options.getFirst(name);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("%s value too large: %s", name, value);
+        }
+    }
+
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        _configName = args.get(0);
+        _config = getInput(_configName);
+
+        if (_serve != null) {
+            if (args.size() > 1) {
+                throw error("--serve takes only a configuration file");
+            }
+            return;
+        }
+
+        if (_mmap) {
+            if (args.size() < 2) {
+                throw error("--mmap requires an input file");
+            }
+            boolean inPlace =
+                args.size() == 2 || sameFile(args.get(1), args.get(2));
+            _inFile = getMappedChannel(args.get(1), inPlace);
+            _outFile = inPlace ? _inFile : getMappedChannel(args.get(2), true);
+            return;
+        }
+
+        if (_stream || _bytes) {
+            _inChannel = args.size() > 1 ? getInputChannel(args.get(1))
+                : Channels.newChannel(System.in);
+            _outChannel = args.size() > 2 ? getOutputChannel(args.get(2))
+                : Channels.newChannel(System.out);
+            return;
+        }
 
         if (args.size() > 1) {
             _input = getInput(args.get(1));
@@ -81,10 +192,100 @@ public final class Main {
         }
     }
 
+    /** Return a channel reading from the file named NAME. */
+    private ReadableByteChannel getInputChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name), READ);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing to the file named NAME. */
+    private WritableByteChannel getOutputChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name), WRITE, CREATE,
+                                    TRUNCATE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return true iff the files named NAME1 and NAME2 both exist and are
+     *  the same file. */
+    private static boolean sameFile(String name1, String name2) {
+        Path path1 = Paths.get(name1), path2 = Paths.get(name2);
+        try {
+            return Files.exists(path2) && Files.isSameFile(path1, path2);
+        } catch (IOException excp) {
+            throw error("could not open %s", name1);
+        }
+    }
+
+    /** Return a file channel for the file named NAME, to be mapped.  The
+     *  channel is opened for reading, and if OUTPUT, also for writing,
+     *  creating and truncating a file other than the input. */
+    private FileChannel getMappedChannel(String name, boolean output) {
+        try {
+            if (!output) {
+                return FileChannel.open(Paths.get(name), READ);
+            } else if (_inFile == null) {
+                return FileChannel.open(Paths.get(name), READ, WRITE);
+            } else {
+                return FileChannel.open(Paths.get(name), READ, WRITE, CREATE,
+                                        TRUNCATE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to _output.  Closes _config, _input, and _output (unless it
+     *  is the standard output) when done. */
+    void process() {
+        try {
+            if (_serve != null) {
+                processServe();
+            } else if (_mmap) {
+                processMapped();
+            } else if (_bytes) {
+                processBytes();
+            } else if (_stream) {
+                processStream();
+            } else if (_batch) {
+                processBatch();
+            } else {
+                processLines();
+            }
+        } finally {
+            _config.close();
+            if (_input != null) {
+                _input.close();
+            }
+            if (_output == System.out) {
+                _output.flush();
+            } else if (_output != null) {
+                _output.close();
+            }
+            for (Tracer tracer : _tracers) {
+                tracer.close();
+            }
+            if (_metrics != null) {
+                for (Machine machine : _machines) {
+                    machine.endMessage();
+                }
+                _metrics.stopDump();
+                System.err.print(_metrics.getReport());
+            }
+        }
+    }
+
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages in _input a line at a
+     *  time, sending the results to _output. */
+    private void processLines() {
         Machine m = readConfig();
         setUp(m, _input.nextLine());
 
@@ -99,9 +300,225 @@ public final class Main {
         }
     }
 
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages in _input, sending the
+     *  results to _output.  Each setting line completely determines the
+     *  state of the machine, so the section of input that it begins is
+     *  converted by a task of its own on a pool of worker threads, each
+     *  with its own machine sharing the configured rotors.  At most
+     *  BATCH_WINDOW sections per worker are in progress at once, and
+     *  the results are written in input order. */
+    private void processBatch() {
+        Machine proto = readConfig();
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(() ->
+                newMachine(proto.numRotors(), proto.numPawls()));
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            String setting = _input.nextLine();
+            while (setting != null) {
+                List<String> section = new ArrayList<>();
+                section.add(setting);
+                setting = null;
+                while (_input.hasNextLine()) {
+                    String nextLine = _input.nextLine();
+                    if (nextLine.contains("*")) {
+                        setting = nextLine;
+                        break;
+                    }
+                    section.add(nextLine);
+                }
+                pending.add(pool.submit(() ->
+                        convertSection(machines.get(), section)));
+                while (pending.size() >= workers * BATCH_WINDOW) {
+                    _output.print(result(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                _output.print(result(pending.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Set up M from the setting line that begins SECTION and return the
+     *  conversion of its remaining lines, formatted as for
+     *  printMessageLine. */
+    private String convertSection(Machine M, List<String> section) {
+        StringBuilder out = new StringBuilder();
+        setUp(M, section.get(0));
+        for (int i = 1; i < section.size(); i += 1) {
+            appendMessageLine(out, M.convert(section.get(i).replace(" ", "")));
+        }
+        M.endMessage();
+        return out.toString();
+    }
+
+    /** Return the result of the finished or pending section conversion
+     *  TASK. */
+    private static String result(Future<String> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("batch conversion failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("batch conversion interrupted");
+        }
+    }
+
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages read from _inChannel,
+     *  writing the results to _outChannel. */
+    private void processStream() {
+        Machine m = readConfig();
+        MessageStream stream = new MessageStream(m, (s) -> setUp(m, s));
+        try {
+            stream.process(_inChannel, _outChannel);
+            _inChannel.close();
+            _outChannel.close();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Configure an Enigma machine from the contents of configuration
+     *  file _config and apply it to the messages in the mapped file
+     *  _inFile, storing the results in _outFile. */
+    private void processMapped() {
+        Machine m = readConfig();
+        MappedConversion conversion =
+            new MappedConversion(m, (s) -> setUp(m, s));
+        try {
+            conversion.process(_inFile, _outFile);
+            _inFile.close();
+            _outFile.close();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Configure an Enigma machine over bytes from the byte configuration
+     *  in _config, set it from the setting line that begins _inChannel,
+     *  and apply it to the rest of _inChannel, writing the setting line
+     *  and the results to _outChannel. */
+    private void processBytes() {
+        Machine m = readByteConfig();
+        ByteBuffer in = ByteBuffer.allocate(MessageStream.BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(MessageStream.BUFFER_SIZE);
+        try {
+            StringBuilder setting = new StringBuilder();
+            boolean eol = false;
+            while (!eol && _inChannel.read(in) >= 0) {
+                in.flip();
+                while (!eol && in.hasRemaining()) {
+                    char ch = (char) (in.get() & 0xff);
+                    eol = ch == '\n';
+                    if (!eol) {
+                        setting.append(ch);
+                    }
+                }
+                in.compact();
+            }
+            ByteConfig.parseSetting(setting.toString(), m).applyTo(m);
+            if (_metrics != null) {
+                _metrics.recordSettingSwitch();
+            }
+            setting.append('\n');
+            writeFully(ByteBuffer.wrap(setting.toString()
+                                       .getBytes(ISO_8859_1)));
+            ByteMachine bytes = new ByteMachine(m);
+            long start = System.nanoTime(), converted = 0;
+            do {
+                in.flip();
+                converted += bytes.convert(in, out);
+                in.compact();
+                out.flip();
+                writeFully(out);
+                out.clear();
+            } while (_inChannel.read(in) >= 0 || in.position() > 0);
+            if (_metrics != null && converted > 0) {
+                _metrics.add(converted, new long[0]);
+                _metrics.recordMessage(System.nanoTime() - start);
+            }
+            _inChannel.close();
+            _outChannel.close();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Configure Enigma machines from the contents of configuration file
+     *  _config (a byte configuration if --bytes was specified) and serve
+     *  clients at the address given by --serve until the server is
+     *  closed. */
+    private void processServe() {
+        Machine m = _bytes ? readByteConfig() : readConfig();
+        EnigmaServer server = new EnigmaServer(_alphabet, m.numRotors(),
+                                               m.numPawls(), _allRotors);
+        if (_metricsPeriod >= 0) {
+            server.setMetrics(metrics(m.numRotors()));
+        }
+        try {
+            server.serve(EnigmaServer.address(_serve));
+        } catch (IOException excp) {
+            throw error("could not serve at %s: %s", _serve,
+                        excp.getMessage());
+        }
+    }
+
+    /** Write all of BUF to _outChannel. */
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            _outChannel.write(buf);
+        }
+    }
+
+    /** Return an Enigma machine over bytes configured from the byte
+     *  configuration in _config. */
+    private Machine readByteConfig() {
+        try {
+            _alphabet = Alphabet.bytes();
+            int numRotors = _config.nextInt();
+            int pawls = _config.nextInt();
+            if (numRotors < pawls) {
+                throw new EnigmaException("Invalid number"
+                        + " of pawls (less than rotors).");
+            }
+            while (_config.hasNext()) {
+                _allRotors.add(ByteConfig.readRotor(_config, _alphabet));
+            }
+            return newMachine(numRotors, pawls);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
+        long checksum = 0;
+        if (_cacheFile != null) {
+            try {
+                checksum = CompiledConfig.checksum(
+                        Files.readAllBytes(Paths.get(_configName)));
+            } catch (IOException excp) {
+                throw error("could not read %s", _configName);
+            }
+            CompiledConfig compiled =
+                CompiledConfig.load(_cacheFile, checksum);
+            if (compiled != null) {
+                _alphabet = compiled.alphabet();
+                _allRotors.addAll(compiled.rotors());
+                return newMachine(compiled.numRotors(),
+                                  compiled.numPawls());
+            }
+        }
         try {
             _alphabet = new Alphabet(_config.next());
             if (_alphabet.contains('(')
@@ -120,12 +537,64 @@ public final class Main {
             while (_config.hasNext()) {
                 _allRotors.add(readRotor());
             }
-            return new Machine(_alphabet, numRotors, pawls, _allRotors);
+            if (_cacheFile != null) {
+                saveCompiledConfig(numRotors, pawls, checksum);
+            }
+            return newMachine(numRotors, pawls);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
+    /** Write the configuration just read, with NUMROTORS slots and PAWLS
+     *  pawls, to _cacheFile as a compiled configuration of a source with
+     *  checksum CHECKSUM.  Failure to write it is reported but is not an
+     *  error. */
+    private void saveCompiledConfig(int numRotors, int pawls, long checksum) {
+        try {
+            new CompiledConfig(_alphabet, numRotors, pawls, _allRotors)
+                .save(_cacheFile, checksum);
+        } catch (IOException excp) {
+            System.err.printf("Warning: could not write %s: %s%n",
+                              _cacheFile, excp.getMessage());
+        }
+    }
+
+    /** Return a new compiled machine with NUMROTORS slots and PAWLS pawls
+     *  using _alphabet and _allRotors, traced if --verbose was
+     *  specified. */
+    private Machine newMachine(int numRotors, int pawls) {
+        Machine machine =
+            new Machine(_alphabet, numRotors, pawls, _allRotors);
+        machine.setCompiled(true);
+        machine.setSpecialized(_specialize);
+        if (_metricsPeriod >= 0) {
+            machine.setMetrics(metrics(numRotors));
+            _machines.add(machine);
+        }
+        if (_verbose) {
+            Tracer tracer = new Tracer(machine, System.err, _sample);
+            _tracers.add(tracer);
+            machine.setTracer(tracer);
+        }
+        return machine;
+    }
+
+    /** Return the metrics of my machines, which have NUMROTORS slots,
+     *  creating them, registering them with JMX, and starting their
+     *  periodic printing if necessary. */
+    private synchronized EnigmaMetrics metrics(int numRotors) {
+        if (_metrics == null) {
+            EnigmaMetrics metrics = new EnigmaMetrics(numRotors);
+            metrics.register();
+            if (_metricsPeriod > 0) {
+                metrics.startDump(System.err, _metricsPeriod);
+            }
+            _metrics = metrics;
+        }
+        return _metrics;
+    }
+
     /** Return a rotor, reading its description from _config. */
     private Rotor readRotor() {
         try {
@@ -137,7 +606,7 @@ public final class Main {
                 cycles += _config.next("\\(.+\\)");
             }
 
-            Permutation perm = new Permutation(cycles, _alphabet);
+            Permutation perm = new Permutation(cycles, _alphabet, true);
 
             if (rotorType.substring(0, 1).equals("R")) {
                 return new Reflector(rotorName, perm);
@@ -154,66 +623,34 @@ public final class Main {
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
+     *  which must have the format specified in the assignment.  Setting
+     *  lines seen recently by this thread are not parsed again. */
     private void setUp(Machine M, String settings) {
-        String clean = settings.replace("*", "");
-        String [] rotors = new String[M.numRotors()];
-
-        if (clean.contains("(")) {
-            String clean2 = clean.substring(0, clean.indexOf("("));
-            String [] check = clean2.split(" ");
-            if (M.numRotors() + 2 != check.length) {
-                throw error("Incorrect number of rotors.");
-            }
-        } else {
-            String [] check2 = clean.split(" ");
-            if (M.numRotors() + 2 != check2.length) {
-                throw error("Incorrect number of rotors.");
-            }
-        }
-
-        for (int i = 0; i < rotors.length; i++) {
-            while (clean.charAt(0) == ' ') {
-                clean = clean.substring(1);
-            }
-            rotors[i] = clean.substring(0,
-                    clean.indexOf(' '));
-            clean = clean.substring(clean.indexOf(' '));
-        }
-
-        M.insertRotors(rotors);
-
-        while (clean.charAt(0) == ' ') {
-            clean = clean.substring(1);
-        }
-
-        if (clean.contains("(")) {
-            M.setRotors(clean.substring(0, clean.indexOf(' ')));
-            clean = clean.substring(clean.indexOf(" "));
-            while (clean.charAt(0) == ' ') {
-                clean = clean.substring(1);
-                Permutation p = new Permutation(clean, _alphabet);
-                M.setPlugboard(p);
-            }
-        } else {
-            M.setRotors(clean);
+        M.endMessage();
+        _setups.get().lookup(settings, M).applyTo(M);
+        if (_metrics != null) {
+            _metrics.recordSettingSwitch();
         }
     }
 
-
-    /** Return true iff verbose option specified. */
-    static boolean verbose() {
-        return _verbose;
-    }
-
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
-        while (msg.length() > 5) {
-            _output.print(msg.substring(0, 5) + " ");
-            msg = msg.substring(5);
+        StringBuilder out = new StringBuilder(msg.length() * 6 / 5 + 2);
+        appendMessageLine(out, msg);
+        _output.print(out);
+    }
+
+    /** Append MSG to OUT in groups of five (except that the last group may
+     *  have fewer letters), followed by a line separator. */
+    private static void appendMessageLine(StringBuilder out, String msg) {
+        for (int i = 0; i < msg.length(); i += 5) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            out.append(msg, i, Math.min(msg.length(), i + 5));
         }
-        _output.println(msg);
+        out.append(System.lineSeparator());
     }
 
     /** Alphabet used in this machine. */
@@ -222,6 +659,25 @@ public final class Main {
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Source of input messages in streaming mode. */
+    private ReadableByteChannel _inChannel;
+
+    /** Destination of processed messages in streaming mode. */
+    private WritableByteChannel _outChannel;
+
+    /** Input file in mapped mode. */
+    private FileChannel _inFile;
+
+    /** Output file in mapped mode; the same as _inFile when converting in
+     *  place. */
+    private FileChannel _outFile;
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** Compiled configuration file given by --cache, or null. */
+    private static Path _cacheFile;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
@@ -231,6 +687,49 @@ public final class Main {
     /** True if --verbose specified. */
     private static boolean _verbose;
 
+    /** With --verbose, one of every _sample characters is traced. */
+    private static int _sample = 1;
+
+    /** Tracers of the machines I have created. */
+    private final List<Tracer> _tracers = new CopyOnWriteArrayList<>();
+
+    /** True if --bytes specified. */
+    private static boolean _bytes;
+
+    /** Seconds between printings of metrics given by --metrics, or -1 if
+     *  metrics are not kept. */
+    private static int _metricsPeriod = -1;
+
+    /** Metrics of my machines, or null if none have been created or
+     *  metrics are not kept. */
+    private volatile EnigmaMetrics _metrics;
+
+    /** Machines whose work is counted by _metrics. */
+    private final List<Machine> _machines = new CopyOnWriteArrayList<>();
+
+    /** True if --specialize specified. */
+    private static boolean _specialize;
+
+    /** True if --stream specified. */
+    private static boolean _stream;
+
+    /** True if --batch specified. */
+    private static boolean _batch;
+
+    /** True if --mmap specified. */
+    private static boolean _mmap;
+
+    /** Address given by --serve, or null. */
+    private static String _serve;
+
+    /** Number of sections per batch worker that may be in progress or
+     *  awaiting output at once. */
+    private static final int BATCH_WINDOW = 4;
+
+    /** Recently used setups, for each thread that sets up machines. */
+    private final ThreadLocal<SetupCache> _setups =
+        ThreadLocal.withInitial(SetupCache::new);
+
     /** Collection of all rotors available to the machine. */
     private ArrayList<Rotor> _allRotors = new ArrayList<>();
 
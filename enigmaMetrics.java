@@ -0,0 +1,256 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/** Counters of the work done by machines, and a histogram of the time
+ *  taken by each message, shared by any number of machines.  Machines
+ *  count in fields of their own and add their counts here only once per
+ *  conversion call (see Machine.setMetrics), and the counters are
+ *  LongAdders, so that concurrent machines rarely contend.
+ *
+ *  Latencies are recorded in a log-linear histogram, as in HdrHistogram:
+ *  values below 2^SUB_BITS have buckets of their own, and each larger
+ *  power of two is divided into 2^SUB_BITS buckets, so that every value
+ *  is known to within about 1 part in 2^SUB_BITS.  The buckets are
+ *  elements of an AtomicLongArray, so recording takes no lock.
+ *  @author Aayush Gupta
+ */
+class EnigmaMetrics implements EnigmaMetricsMBean {
+
+    /** Name under which I am registered with the platform MBean
+     *  server. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** Metrics for machines with NUMSLOTS rotor slots. */
+    EnigmaMetrics(int numSlots) {
+        _steps = new LongAdder[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            _steps[i] = new LongAdder();
+        }
+    }
+
+    /** Add CHARS characters converted and, for each slot I, STEPS[I] steps
+     *  of its rotor. */
+    void add(long chars, long[] steps) {
+        if (chars != 0) {
+            _characters.add(chars);
+        }
+        for (int i = 0; i < steps.length && i < _steps.length; i++) {
+            if (steps[i] != 0) {
+                _steps[i].add(steps[i]);
+            }
+        }
+    }
+
+    /** Record a message that took NANOS nanoseconds. */
+    void recordMessage(long nanos) {
+        nanos = Math.max(0, nanos);
+        _messages.increment();
+        _totalLatency.add(nanos);
+        _maxLatency.accumulate(nanos);
+        _latencies.incrementAndGet(bucket(nanos));
+    }
+
+    /** Record that a setting line was applied. */
+    void recordSettingSwitch() {
+        _settingSwitches.increment();
+    }
+
+    @Override
+    public long getCharacters() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getSettingSwitches() {
+        return _settingSwitches.sum();
+    }
+
+    @Override
+    public long[] getStepEvents() {
+        long[] result = new long[_steps.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _steps[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public double getMeanLatency() {
+        long messages = _messages.sum();
+        return messages == 0 ? 0 : (double) _totalLatency.sum() / messages;
+    }
+
+    @Override
+    public long getLatency50() {
+        return latencyPercentile(50);
+    }
+
+    @Override
+    public long getLatency99() {
+        return latencyPercentile(99);
+    }
+
+    @Override
+    public long getLatency999() {
+        return latencyPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return _maxLatency.get();
+    }
+
+    @Override
+    public String getReport() {
+        Formatter out = new Formatter();
+        out.format("characters %d  messages %d  setting switches %d%n",
+                   getCharacters(), getMessages(), getSettingSwitches());
+        out.format("step events by slot %s%n",
+                   Arrays.toString(getStepEvents()));
+        out.format("message latency (us): mean %.1f  p50 %.1f  p99 %.1f"
+                   + "  p99.9 %.1f  max %.1f%n",
+                   getMeanLatency() / NANOS_PER_MICRO,
+                   (double) getLatency50() / NANOS_PER_MICRO,
+                   (double) getLatency99() / NANOS_PER_MICRO,
+                   (double) getLatency999() / NANOS_PER_MICRO,
+                   (double) getMaxLatency() / NANOS_PER_MICRO);
+        return out.toString();
+    }
+
+    /** Return the least latency that is at least as great as PERCENT
+     *  percent of the recorded latencies, to the precision of the
+     *  histogram, or 0 if none have been recorded. */
+    long latencyPercentile(double percent) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = _latencies.get(b);
+            total += counts[b];
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS && total > 0; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(highest(b), _maxLatency.get());
+            }
+        }
+        return 0;
+    }
+
+    /** Register me with the platform MBean server, replacing any metrics
+     *  registered before.  Failure to do so is reported but is not an
+     *  error. */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this,
+                                                   EnigmaMetricsMBean.class),
+                                 name);
+        } catch (JMException excp) {
+            System.err.printf("Warning: could not register metrics: %s%n",
+                              excp.getMessage());
+        }
+    }
+
+    /** Print my report to OUT every PERIOD seconds, on a daemon thread,
+     *  until stopDump is called. */
+    void startDump(PrintStream out, long period) {
+        _dumper = Executors.newSingleThreadScheduledExecutor((task) -> {
+            Thread thread = new Thread(task, "enigma-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _dumper.scheduleAtFixedRate(() -> out.print(getReport()), period,
+                                    period, TimeUnit.SECONDS);
+    }
+
+    /** Stop any periodic printing of my report. */
+    void stopDump() {
+        if (_dumper != null) {
+            _dumper.shutdownNow();
+            _dumper = null;
+        }
+    }
+
+    /** Return the histogram bucket of the value V >= 0. */
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int group = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        int sub = (int) (v >>> group) - SUB_BUCKETS;
+        return SUB_BUCKETS * (group + 1) + sub;
+    }
+
+    /** Return the greatest value in histogram bucket B. */
+    static long highest(int b) {
+        if (b < SUB_BUCKETS) {
+            return b;
+        }
+        int group = b / SUB_BUCKETS - 1;
+        long sub = b % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << group) - 1;
+    }
+
+    /** Log base 2 of the number of buckets per power of two. */
+    static final int SUB_BITS = 4;
+
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Number of histogram buckets, enough for any long. */
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS);
+
+    /** Nanoseconds per microsecond. */
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Messages converted. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Setting lines applied. */
+    private final LongAdder _settingSwitches = new LongAdder();
+
+    /** Steps of the rotor in each slot. */
+    private final LongAdder[] _steps;
+
+    /** Sum of all message latencies. */
+    private final LongAdder _totalLatency = new LongAdder();
+
+    /** Greatest message latency. */
+    private final LongAccumulator _maxLatency =
+        new LongAccumulator(Math::max, 0);
+
+    /** Number of message latencies in each histogram bucket. */
+    private final AtomicLongArray _latencies = new AtomicLongArray(BUCKETS);
+
+    /** Prints my report periodically, or null. */
+    private ScheduledExecutorService _dumper;
+
+}
@@ -0,0 +1,41 @@
+package enigma;
+
+/** The management interface of EnigmaMetrics, as seen through JMX.
+ *  Latencies are in nanoseconds.
+ *  @author Aayush Gupta
+ */
+public interface EnigmaMetricsMBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of messages converted: the text following a
+     *  setting line, up to the next setting line or the end of input. */
+    long getMessages();
+
+    /** Return the number of setting lines applied. */
+    long getSettingSwitches();
+
+    /** Return the number of times the rotor in each slot moved, indexed by
+     *  slot. */
+    long[] getStepEvents();
+
+    /** Return the mean time taken by a message. */
+    double getMeanLatency();
+
+    /** Return the median time taken by a message. */
+    long getLatency50();
+
+    /** Return the 99th percentile of the time taken by a message. */
+    long getLatency99();
+
+    /** Return the 99.9th percentile of the time taken by a message. */
+    long getLatency999();
+
+    /** Return the longest time taken by a message. */
+    long getMaxLatency();
+
+    /** Return a description of all of the above. */
+    String getReport();
+
+}
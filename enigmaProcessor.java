@@ -0,0 +1,306 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that converts a stream of ByteBuffers with a machine.
+ *  Each received buffer is converted into a new buffer that is published
+ *  to my subscribers; bytes that are characters of the machine's alphabet
+ *  (taken as ISO-8859-1) are converted and all others are copied, and the
+ *  machine's settings carry over from one buffer to the next, so the
+ *  result is the same as converting the concatenated input at once.
+ *
+ *  I request one buffer from upstream at a time, and only while every
+ *  subscriber has requested more than it has been sent and has fewer
+ *  than getMaxBufferCapacity() results sent but not yet received, so that
+ *  each result fits in every subscriber's buffer and a slow subscriber
+ *  slows the upstream publisher rather than losing results.  Nothing
+ *  blocks: requests that subscribers make through the subscriptions I
+ *  give them, and the results they receive, prompt me to request more
+ *  from upstream if I had stopped.  A result that cannot be delivered
+ *  nonetheless closes me exceptionally.
+ *  Output buffers are drawn from a pool; a subscriber that is done with a
+ *  buffer may return it with recycle.
+ *  @author Aayush Gupta
+ */
+class EnigmaProcessor extends SubmissionPublisher<ByteBuffer>
+    implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    /** Default size of new output buffers, in bytes. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Default number of buffers kept for reuse. */
+    static final int POOL_SIZE = 16;
+
+    /** A processor that converts with MACHINE, which must then be used by
+     *  no one else, delivering results to subscribers with EXECUTOR,
+     *  buffering at most MAXBUFFERCAPACITY results per subscriber, and
+     *  keeping at most POOLSIZE buffers for reuse. */
+    EnigmaProcessor(Machine machine, Executor executor,
+                    int maxBufferCapacity, int poolSize) {
+        super(executor, maxBufferCapacity);
+        _machine = machine;
+        _pool = new ArrayBlockingQueue<>(poolSize);
+        Alphabet alphabet = machine.alphabet();
+        if (alphabet.isBytes()) {
+            _bytes = new ByteMachine(machine);
+            _code = null;
+            _chars = null;
+            _batch = null;
+        } else {
+            _bytes = null;
+            _code = new int[Alphabet.BYTE_VALUES];
+            _chars = new byte[alphabet.size()];
+            Arrays.fill(_code, -1);
+            for (int i = 0; i < alphabet.size(); i++) {
+                char ch = alphabet.toChar(i);
+                if (ch >= Alphabet.BYTE_VALUES) {
+                    throw error("processor requires an alphabet of"
+                                + " single-byte characters");
+                }
+                _code[ch] = i;
+                _chars[i] = (byte) ch;
+            }
+            _batch = new int[BUFFER_SIZE];
+        }
+    }
+
+    /** A processor that converts with MACHINE, delivering results with the
+     *  common fork/join pool and default buffering. */
+    EnigmaProcessor(Machine machine) {
+        this(machine, ForkJoinPool.commonPool(), Flow.defaultBufferSize(),
+             POOL_SIZE);
+    }
+
+    /** Return BUF, a buffer I published, to my pool for reuse.  BUF must
+     *  no longer be used by the caller or by any other subscriber. */
+    void recycle(ByteBuffer buf) {
+        buf.clear();
+        _pool.offer(buf);
+    }
+
+    /** Subscribe SUBSCRIBER to my results.  The subscription it is given
+     *  reports its requests to me, so SUBSCRIBER itself is not among
+     *  getSubscribers(). */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Downstream downstream = new Downstream(subscriber);
+        synchronized (_downstreams) {
+            super.subscribe(downstream);
+            _downstreams.add(downstream);
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        _subscription = subscription;
+        _idle.set(true);
+        pull();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        ByteBuffer out;
+        try {
+            out = buffer(item.remaining());
+            convert(item, out);
+            out.flip();
+        } catch (EnigmaException excp) {
+            _subscription.cancel();
+            closeExceptionally(excp);
+            return;
+        }
+        int lag;
+        synchronized (_downstreams) {
+            lag = offer(out, null);
+            for (Downstream downstream : _downstreams) {
+                downstream._queued.incrementAndGet();
+            }
+        }
+        if (lag < 0) {
+            _subscription.cancel();
+            closeExceptionally(error("converted buffer dropped"));
+            return;
+        }
+        _idle.set(true);
+        pull();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    /** Request one buffer from upstream if none is outstanding and every
+     *  subscriber has demand for a result and room for it. */
+    private void pull() {
+        if (estimateMinimumDemand() > 0 && !full()
+            && _idle.compareAndSet(true, false)) {
+            _subscription.request(1);
+        }
+    }
+
+    /** Return true iff some subscriber has as many results sent but not
+     *  yet received as its buffer holds. */
+    private boolean full() {
+        int capacity = getMaxBufferCapacity();
+        for (Downstream downstream : _downstreams) {
+            if (downstream._queued.get() >= capacity) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** A subscriber to my results, whose subscription reports to me each
+     *  change in its demand, and which counts the results sent to it that
+     *  it has not yet received. */
+    private class Downstream implements Flow.Subscriber<ByteBuffer> {
+
+        /** A subscriber that passes results to SUBSCRIBER. */
+        Downstream(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            _subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                    pull();
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    _downstreams.remove(Downstream.this);
+                    pull();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            try {
+                _subscriber.onNext(item);
+            } finally {
+                _queued.decrementAndGet();
+                pull();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _downstreams.remove(this);
+            _subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            _downstreams.remove(this);
+            _subscriber.onComplete();
+        }
+
+        /** The subscriber I pass results to. */
+        private final Flow.Subscriber<? super ByteBuffer> _subscriber;
+
+        /** Number of results sent to me that I have not yet received. */
+        private final AtomicInteger _queued = new AtomicInteger();
+
+    }
+
+    /** Return an empty buffer with room for at least SIZE bytes, from my
+     *  pool if possible. */
+    private ByteBuffer buffer(int size) {
+        ByteBuffer buf = _pool.poll();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocate(Math.max(size, BUFFER_SIZE));
+        }
+        return buf;
+    }
+
+    /** Convert the remaining bytes of IN into OUT, advancing OUT but not
+     *  IN. */
+    private void convert(ByteBuffer in, ByteBuffer out) {
+        if (_bytes != null) {
+            _bytes.convert(in.duplicate(), out);
+            return;
+        }
+        int start = out.position();
+        int end = in.limit();
+        for (int p = in.position(); p < end; p += _batch.length) {
+            int len = Math.min(_batch.length, end - p);
+            int pending = 0;
+            for (int k = 0; k < len; k++) {
+                int c = _code[in.get(p + k) & 0xff];
+                if (c >= 0) {
+                    _batch[pending] = c;
+                    pending += 1;
+                }
+            }
+            _machine.convert(_batch, pending);
+            pending = 0;
+            for (int k = 0; k < len; k++) {
+                byte b = in.get(p + k);
+                if (_code[b & 0xff] >= 0) {
+                    b = _chars[_batch[pending]];
+                    pending += 1;
+                }
+                out.put(start + p - in.position() + k, b);
+            }
+        }
+        out.position(start + in.remaining());
+    }
+
+    /** The machine that converts text alphabets. */
+    private final Machine _machine;
+
+    /** Converts byte alphabets, or null if the machine's alphabet is not
+     *  Alphabet.bytes(). */
+    private final ByteMachine _bytes;
+
+    /** Alphabet index of each byte value, or -1 if it is not in the
+     *  alphabet; null for byte alphabets. */
+    private final int[] _code;
+
+    /** Byte value of each alphabet index; null for byte alphabets. */
+    private final byte[] _chars;
+
+    /** Alphabet indices of the characters being converted. */
+    private final int[] _batch;
+
+    /** Buffers available for reuse. */
+    private final ArrayBlockingQueue<ByteBuffer> _pool;
+
+    /** Subscription to my upstream publisher. */
+    private volatile Flow.Subscription _subscription;
+
+    /** My subscribers. */
+    private final CopyOnWriteArrayList<Downstream> _downstreams =
+        new CopyOnWriteArrayList<>();
+
+    /** True when I have a subscription to my upstream publisher and no
+     *  request to it is outstanding. */
+    private final AtomicBoolean _idle = new AtomicBoolean();
+
+}
@@ -0,0 +1,385 @@
+package enigma;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static enigma.EnigmaException.*;
+
+/** A server that converts messages for clients connected over a TCP or
+ *  Unix-domain socket, so that the configuration is read once rather than
+ *  once per message.  Each connection is a session with its own machine;
+ *  all sessions share the immutable rotor catalog.  Sessions run on
+ *  virtual threads when the platform has them, and otherwise on a pool of
+ *  daemon threads.
+ *
+ *  Requests and replies are frames: a type byte, a 4-byte big-endian
+ *  payload length, and the payload.  A SETTING frame holds a setting line
+ *  (in ISO-8859-1) and is answered with an empty SETTING frame.  A MESSAGE
+ *  frame holds text to convert, and is answered with a MESSAGE frame
+ *  holding its conversion: characters of the alphabet are converted and
+ *  all other bytes are copied, and the session's machine keeps its
+ *  settings from one message to the next.  Any request that fails is
+ *  answered with an ERROR frame holding a description, and the session
+ *  continues; a request longer than MAX_PAYLOAD is read and discarded
+ *  first.  A negative payload length leaves no way to find the next
+ *  frame, so it is answered with an ERROR frame and ends the session.
+ *  For machines over Alphabet.bytes(), setting lines are byte setting
+ *  lines (see ByteConfig) and every byte of a message is converted.  If
+ *  the server has metrics, each MESSAGE frame counts as a message, timed
+ *  from receipt to conversion, and each SETTING frame as a setting
+ *  switch.
+ *  @author Aayush Gupta
+ */
+class EnigmaServer {
+
+    /** Frame type of setting lines. */
+    static final byte SETTING = 'S';
+
+    /** Frame type of messages. */
+    static final byte MESSAGE = 'M';
+
+    /** Frame type of error replies. */
+    static final byte ERROR = 'E';
+
+    /** Largest payload accepted, in bytes. */
+    static final int MAX_PAYLOAD = 1 << 24;
+
+    /** A server for machines with alphabet ALPHABET, NUMROTORS slots, and
+     *  PAWLS pawls, whose rotors are drawn from CATALOG. */
+    EnigmaServer(Alphabet alphabet, int numRotors, int pawls,
+                 List<Rotor> catalog) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _catalog = List.copyOf(catalog);
+        _code = new int[Alphabet.BYTE_VALUES];
+        _chars = new byte[alphabet.size()];
+        Arrays.fill(_code, -1);
+        for (int i = 0; i < alphabet.size(); i++) {
+            char ch = alphabet.toChar(i);
+            if (ch >= Alphabet.BYTE_VALUES) {
+                throw error("server requires an alphabet of single-byte"
+                            + " characters");
+            }
+            _code[ch] = i;
+            _chars[i] = (byte) ch;
+        }
+    }
+
+    /** Return the socket address described by SPEC: "unix:PATH" for a
+     *  Unix-domain socket, and otherwise "[HOST:]PORT" for TCP (HOST
+     *  defaulting to the loopback address). */
+    static SocketAddress address(String spec) {
+        if (spec.startsWith(UNIX)) {
+            return UnixDomainSocketAddress.of(spec.substring(UNIX.length()));
+        }
+        int colon = spec.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(spec.substring(colon + 1));
+            return colon < 0 ? new InetSocketAddress("localhost", port)
+                : new InetSocketAddress(spec.substring(0, colon), port);
+        } catch (IllegalArgumentException excp) {
+            throw error("bad server address: %s", spec);
+        }
+    }
+
+    /** Accept and serve connections on ADDRESS until close is called.  A
+     *  socket left at the path of a Unix-domain ADDRESS by an earlier
+     *  server is removed, but any other file there is an error. */
+    void serve(SocketAddress address) throws IOException {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress) {
+            Path path = ((UnixDomainSocketAddress) address).getPath();
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!isSocket(path)) {
+                    throw error("%s exists and is not a socket", path);
+                }
+                Files.delete(path);
+            }
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        ExecutorService sessions = newSessionExecutor();
+        try (server) {
+            server.bind(address);
+            _server = server;
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException excp) {
+                    return;
+                }
+                sessions.execute(() -> session(client));
+            }
+        } finally {
+            sessions.shutdown();
+            if (address instanceof UnixDomainSocketAddress) {
+                Path path = ((UnixDomainSocketAddress) address).getPath();
+                if (isSocket(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /** Return true iff PATH names a socket (and not a link to one). */
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode",
+                                                    LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        } catch (NoSuchFileException excp) {
+            return false;
+        } catch (UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Count the work of all sessions started from now on in METRICS, or
+     *  in none if METRICS is null. */
+    void setMetrics(EnigmaMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    /** Stop accepting connections.  Sessions in progress continue. */
+    void close() throws IOException {
+        if (_server != null) {
+            _server.close();
+        }
+    }
+
+    /** Return an executor that runs each task on a new virtual thread, if
+     *  the platform supports them, and otherwise on a cached pool of daemon
+     *  threads. */
+    static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool((task) -> {
+                Thread thread = new Thread(task, "enigma-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Serve the session with the client connected to CLIENT until it
+     *  disconnects. */
+    private void session(SocketChannel client) {
+        Machine machine =
+            new Machine(_alphabet, _numRotors, _pawls, _catalog);
+        machine.setCompiled(true);
+        EnigmaMetrics metrics = _metrics;
+        machine.setMetrics(metrics);
+        SetupCache setups = new SetupCache();
+        ByteMachine bytes = null;
+        boolean ready = false;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocate(MessageStream.BUFFER_SIZE);
+        int[] batch = new int[0];
+        try (client) {
+            while (true) {
+                header.clear();
+                if (!readFully(client, header)) {
+                    return;
+                }
+                header.flip();
+                byte type = header.get();
+                int length = header.getInt();
+                if (length < 0) {
+                    reply(client, ERROR, message("bad frame length"));
+                    return;
+                }
+                if (length > MAX_PAYLOAD) {
+                    if (!skip(client, length, payload)) {
+                        return;
+                    }
+                    reply(client, ERROR, message("frame too long"));
+                    continue;
+                }
+                if (payload.capacity() < length) {
+                    payload = ByteBuffer.allocate(length);
+                }
+                payload.clear().limit(length);
+                if (!readFully(client, payload)) {
+                    return;
+                }
+                payload.flip();
+                try {
+                    switch (type) {
+                    case SETTING:
+                        String line = new String(payload.array(), 0, length,
+                                                 ISO_8859_1);
+                        if (_alphabet.isBytes()) {
+                            ByteConfig.parseSetting(line, machine)
+                                .applyTo(machine);
+                            bytes = new ByteMachine(machine);
+                        } else {
+                            setups.lookup(line, machine).applyTo(machine);
+                        }
+                        if (metrics != null) {
+                            metrics.recordSettingSwitch();
+                        }
+                        ready = true;
+                        payload.limit(0);
+                        reply(client, SETTING, payload);
+                        break;
+                    case MESSAGE:
+                        if (!ready) {
+                            throw error("no setting line");
+                        }
+                        if (bytes != null) {
+                            long start = System.nanoTime();
+                            int converted = bytes.convert(payload.duplicate(),
+                                                          payload.duplicate());
+                            if (metrics != null && converted > 0) {
+                                metrics.add(converted, new long[0]);
+                                metrics.recordMessage(System.nanoTime()
+                                                      - start);
+                            }
+                        } else {
+                            if (batch.length < length) {
+                                batch = new int[payload.capacity()];
+                            }
+                            machine.endMessage();
+                            convert(machine, payload.array(), length, batch);
+                            machine.endMessage();
+                        }
+                        reply(client, MESSAGE, payload);
+                        break;
+                    default:
+                        throw error("unknown frame type %d", type);
+                    }
+                } catch (EnigmaException excp) {
+                    reply(client, ERROR, message(excp.getMessage()));
+                }
+            }
+        } catch (IOException excp) {
+            return;
+        } finally {
+            machine.endMessage();
+        }
+    }
+
+    /** Convert the first LEN bytes of TEXT in place with MACHINE, using
+     *  BATCH as scratch space. */
+    private void convert(Machine machine, byte[] text, int len, int[] batch) {
+        int pending = 0;
+        for (int k = 0; k < len; k++) {
+            int c = _code[text[k] & 0xff];
+            if (c >= 0) {
+                batch[pending] = c;
+                pending += 1;
+            }
+        }
+        machine.convert(batch, pending);
+        pending = 0;
+        for (int k = 0; k < len; k++) {
+            if (_code[text[k] & 0xff] >= 0) {
+                text[k] = _chars[batch[pending]];
+                pending += 1;
+            }
+        }
+    }
+
+    /** Read from CHANNEL until BUF is full.  Returns false if the channel
+     *  reached end of stream before anything was read, and throws
+     *  EOFException if it did so part way. */
+    private static boolean readFully(SocketChannel channel, ByteBuffer buf)
+        throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                if (buf.position() == start) {
+                    return false;
+                }
+                throw new EOFException();
+            }
+        }
+        return true;
+    }
+
+    /** Read and discard LENGTH bytes from CHANNEL, using BUF as scratch
+     *  space.  Returns false if the channel reached end of stream first. */
+    private static boolean skip(SocketChannel channel, int length,
+                                ByteBuffer buf) throws IOException {
+        while (length > 0) {
+            buf.clear().limit(Math.min(length, buf.capacity()));
+            if (channel.read(buf) < 0) {
+                return false;
+            }
+            length -= buf.position();
+        }
+        return true;
+    }
+
+    /** Send a frame of type TYPE holding the remaining bytes of PAYLOAD to
+     *  CHANNEL. */
+    private static void reply(SocketChannel channel, byte type,
+                              ByteBuffer payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(type).putInt(payload.remaining()).flip();
+        ByteBuffer[] frame = { header, payload };
+        while (payload.hasRemaining() || header.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /** Return TEXT as a payload. */
+    private static ByteBuffer message(String text) {
+        return ByteBuffer.wrap(String.valueOf(text).getBytes(ISO_8859_1));
+    }
+
+    /** Prefix of addresses of Unix-domain sockets. */
+    private static final String UNIX = "unix:";
+
+    /** Mask of the file type bits of a Unix file mode, and the file type
+     *  of sockets. */
+    private static final int S_IFMT = 0170000, S_IFSOCK = 0140000;
+
+    /** Size of a frame's type and length. */
+    private static final int HEADER_SIZE = 5;
+
+    /** Common alphabet of the machines. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of the machines. */
+    private final int _numRotors, _pawls;
+
+    /** Rotors available to all sessions. */
+    private final List<Rotor> _catalog;
+
+    /** Alphabet index of each byte value, or -1 if it is not in the
+     *  alphabet. */
+    private final int[] _code;
+
+    /** Byte value of each alphabet index. */
+    private final byte[] _chars;
+
+    /** Metrics of new sessions, or null. */
+    private volatile EnigmaMetrics _metrics;
+
+    /** The listening channel, once serve has opened it. */
+    private volatile ServerSocketChannel _server;
+
+}
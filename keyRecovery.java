@@ -0,0 +1,411 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** Ciphertext-only recovery of machine keys.  Recovery has two phases.
+ *  First, every rotor order from a catalog and every starting setting is
+ *  tried without a plugboard, and the settings whose decryptions have the
+ *  highest index of coincidence are kept.  Second, for each kept setting,
+ *  the plugboard is found by hill-climbing over cable changes, scoring
+ *  each decryption with an n-gram model, from several random starting
+ *  plugboards in parallel.
+ *
+ *  For the second phase, the plugboard-free scrambler at each position of
+ *  the ciphertext is tabulated once per setting, so decrypting a candidate
+ *  costs three array lookups per character and allocates nothing.
+ *  @author Aayush Gupta
+ */
+class KeyRecovery {
+
+    /** A key recovery for machines with alphabet ALPHA, NUMROTORS rotor
+     *  slots, and PAWLS pawls, trying the rotors in ALLROTORS and scoring
+     *  plaintexts with MODEL. */
+    KeyRecovery(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors, NgramModel model) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _allRotors = allRotors;
+        _model = model;
+    }
+
+    /** Limit the plugboards tried to at most CABLES cables. */
+    void setMaxCables(int cables) {
+        _maxCables = cables;
+    }
+
+    /** Return setting lines for the most plausible keys for CIPHERTEXT,
+     *  best first, hill-climbing the plugboards of the CANDIDATES settings
+     *  with the highest index of coincidence, with RESTARTS random starts
+     *  each, on the common fork/join pool. */
+    List<String> recover(String ciphertext, int candidates, int restarts) {
+        return recover(ciphertext, candidates, restarts,
+                       ForkJoinPool.commonPool());
+    }
+
+    /** Return setting lines for the most plausible keys for CIPHERTEXT,
+     *  best first, hill-climbing the plugboards of the CANDIDATES settings
+     *  with the highest index of coincidence, with RESTARTS random starts
+     *  each, on POOL.  CANDIDATES must be at least 1 and RESTARTS at
+     *  least 0. */
+    List<String> recover(String ciphertext, int candidates, int restarts,
+                         ForkJoinPool pool) {
+        if (candidates < 1 || restarts < 0) {
+            throw error("bad number of candidates or restarts");
+        }
+        _cipher = new int[ciphertext.length()];
+        for (int i = 0; i < _cipher.length; i += 1) {
+            _cipher[i] = _alphabet.toInt(ciphertext.charAt(i));
+        }
+        List<String[]> orders =
+            Bombe.rotorOrders(_allRotors, _numRotors, _pawls);
+        _machines = new Machine[orders.size()];
+        for (int k = 0; k < _machines.length; k += 1) {
+            _machines[k] = new Machine(_alphabet, _numRotors, _pawls,
+                                       _allRotors);
+            _machines[k].insertRotors(orders.get(k));
+        }
+        _keep = candidates;
+        _ranked = new ConcurrentLinkedQueue<>();
+        long units = (long) _machines.length * _alphabet.size();
+        if (units == 0) {
+            return new ArrayList<>();
+        }
+        pool.invoke(new RankTask(0, units));
+
+        List<Candidate> best = new ArrayList<>(_ranked);
+        best.sort(Comparator.comparingLong((Candidate c) -> c._ioc)
+                  .reversed());
+        best = best.subList(0, Math.min(candidates, best.size()));
+
+        List<ClimbTask> climbs = new ArrayList<>();
+        for (Candidate cand : best) {
+            cand.tabulate();
+            for (int r = 0; r < restarts; r += 1) {
+                climbs.add(new ClimbTask(cand, r));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(climbs);
+            }
+        });
+
+        best.sort(Comparator.comparingLong((Candidate c) -> c._score)
+                  .reversed());
+        List<String> result = new ArrayList<>();
+        for (Candidate cand : best) {
+            result.add(cand.settingLine());
+        }
+        return result;
+    }
+
+    /** A rotor order and starting setting under consideration, with the
+     *  best plugboard found for it so far. */
+    private class Candidate {
+
+        /** A candidate using the rotors of MACHINE at starting settings
+         *  START, indexed by slot, whose plugboard-free decryption has index
+         *  of coincidence proportional to IOC. */
+        Candidate(Machine machine, int[] start, long ioc) {
+            _machine = machine;
+            _start = start;
+            _ioc = ioc;
+            _score = Long.MIN_VALUE;
+        }
+
+        /** Compute my scrambler at each position of the ciphertext. */
+        void tabulate() {
+            int size = _alphabet.size();
+            _scrambler = new int[_cipher.length * size];
+            int[] posn = _start.clone();
+            for (int i = 0; i < _cipher.length; i += 1) {
+                _machine.step(posn);
+                for (int x = 0; x < size; x += 1) {
+                    _scrambler[i * size + x] = _machine.convertAt(x, posn);
+                }
+            }
+        }
+
+        /** Record PLUGBOARD, with score SCORE, if it is my best so
+         *  far. */
+        synchronized void offer(int[] plugboard, long score) {
+            if (score > _score) {
+                _score = score;
+                _plugboard = plugboard.clone();
+            }
+        }
+
+        /** Return my setting line. */
+        String settingLine() {
+            StringBuilder line = new StringBuilder("*");
+            for (int i = 0; i < _numRotors; i += 1) {
+                line.append(' ').append(_machine.getRotor(i).name());
+            }
+            line.append(' ');
+            for (int i = 1; i < _numRotors; i += 1) {
+                line.append(_alphabet.toChar(_start[i]));
+            }
+            for (int x = 0; _plugboard != null && x < _plugboard.length;
+                 x += 1) {
+                if (_plugboard[x] > x) {
+                    line.append(" (").append(_alphabet.toChar(x))
+                        .append(_alphabet.toChar(_plugboard[x]))
+                        .append(')');
+                }
+            }
+            return line.toString();
+        }
+
+        /** Machine, without plugboard, with my rotors. */
+        private final Machine _machine;
+
+        /** Starting settings, indexed by slot. */
+        private final int[] _start;
+
+        /** Index of coincidence numerator of my plugboard-free
+         *  decryption. */
+        private final long _ioc;
+
+        /** Score of the best decryption found, and its plugboard. */
+        private long _score;
+
+        /** Best plugboard found, as a table of partners. */
+        private int[] _plugboard;
+
+        /** Plugboard-free conversion of each letter at each position,
+         *  indexed by position * alphabet size + letter. */
+        private int[] _scrambler;
+    }
+
+    /** A fork/join task that ranks the settings of a range of work units
+     *  by index of coincidence.  Unit U is rotor order U / (alphabet size)
+     *  with the leftmost non-reflector rotor at setting U % (alphabet
+     *  size). */
+    private class RankTask extends RecursiveAction {
+
+        /** A task ranking units LO through HI-1. */
+        RankTask(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                long mid = (_lo + _hi) >>> 1;
+                invokeAll(new RankTask(_lo, mid), new RankTask(mid, _hi));
+                return;
+            }
+            int size = _alphabet.size();
+            Machine machine = _machines[(int) (_lo / size)];
+            int[] start = new int[_numRotors];
+            int[] posn = new int[_numRotors];
+            int[] counts = new int[size];
+            long[] bestIoc = new long[_keep];
+            int[][] bestStart = new int[_keep][];
+            int kept = 0;
+            start[1] = (int) (_lo % size);
+            while (true) {
+                System.arraycopy(start, 0, posn, 0, _numRotors);
+                long ioc = coincidences(machine, posn, counts);
+                if (kept < _keep) {
+                    bestIoc[kept] = ioc;
+                    bestStart[kept] = start.clone();
+                    kept += 1;
+                } else {
+                    int worst = 0;
+                    for (int k = 1; k < _keep; k += 1) {
+                        if (bestIoc[k] < bestIoc[worst]) {
+                            worst = k;
+                        }
+                    }
+                    if (ioc > bestIoc[worst]) {
+                        bestIoc[worst] = ioc;
+                        System.arraycopy(start, 0, bestStart[worst], 0,
+                                         _numRotors);
+                    }
+                }
+                int k = _numRotors - 1;
+                while (k > 1 && start[k] == size - 1) {
+                    start[k] = 0;
+                    k -= 1;
+                }
+                if (k == 1) {
+                    break;
+                }
+                start[k] += 1;
+            }
+            for (int k = 0; k < kept; k += 1) {
+                _ranked.add(new Candidate(machine, bestStart[k],
+                                          bestIoc[k]));
+            }
+        }
+
+        /** Return the sum of n(n-1) over the letter counts n of the
+         *  plugboard-free decryption of the ciphertext by MACHINE starting
+         *  at settings POSN (which are advanced), using COUNTS as scratch
+         *  space.  This is proportional to the index of coincidence. */
+        private long coincidences(Machine machine, int[] posn, int[] counts) {
+            Arrays.fill(counts, 0);
+            for (int c : _cipher) {
+                machine.step(posn);
+                counts[machine.convertAt(c, posn)] += 1;
+            }
+            long sum = 0;
+            for (int n : counts) {
+                sum += (long) n * (n - 1);
+            }
+            return sum;
+        }
+
+        /** Range of units ranked. */
+        private final long _lo, _hi;
+    }
+
+    /** A fork/join task that hill-climbs the plugboard of one candidate
+     *  from one random start. */
+    private class ClimbTask extends RecursiveAction {
+
+        /** A task climbing from random start number RESTART for
+         *  CANDIDATE. */
+        ClimbTask(Candidate candidate, int restart) {
+            _cand = candidate;
+            _random = new Random(restart * 7919L + candidate._ioc);
+        }
+
+        @Override
+        protected void compute() {
+            int size = _alphabet.size();
+            int[] plug = new int[size];
+            int[] text = new int[_cipher.length];
+            for (int x = 0; x < size; x += 1) {
+                plug[x] = x;
+            }
+            int cables = _random.nextInt(_maxCables + 1);
+            for (int k = 0; k < cables; k += 1) {
+                int a = _random.nextInt(size), b = _random.nextInt(size);
+                if (a != b && plug[a] == a && plug[b] == b) {
+                    plug[a] = b;
+                    plug[b] = a;
+                }
+            }
+            long best = score(plug, text);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < size; a += 1) {
+                    for (int b = a + 1; b < size; b += 1) {
+                        int pa = plug[a], pb = plug[b];
+                        if (pa == b) {
+                            plug[a] = a;
+                            plug[b] = b;
+                        } else {
+                            plug[pa] = pa;
+                            plug[pb] = pb;
+                            plug[a] = b;
+                            plug[b] = a;
+                            if (cableCount(plug) > _maxCables) {
+                                restore(plug, a, pa, b, pb);
+                                continue;
+                            }
+                        }
+                        long score = score(plug, text);
+                        if (score > best) {
+                            best = score;
+                            improved = true;
+                        } else {
+                            restore(plug, a, pa, b, pb);
+                        }
+                    }
+                }
+            }
+            _cand.offer(plug, best);
+        }
+
+        /** Undo a change to PLUG that involved A and B, whose partners had
+         *  been PA and PB. */
+        private void restore(int[] plug, int a, int pa, int b, int pb) {
+            plug[a] = a;
+            plug[b] = b;
+            plug[pa] = pa;
+            plug[pb] = pb;
+            plug[a] = pa;
+            plug[pa] = a;
+            plug[b] = pb;
+            plug[pb] = b;
+        }
+
+        /** Return the number of cables in PLUG. */
+        private int cableCount(int[] plug) {
+            int n = 0;
+            for (int x = 0; x < plug.length; x += 1) {
+                if (plug[x] > x) {
+                    n += 1;
+                }
+            }
+            return n;
+        }
+
+        /** Return the n-gram score of the decryption of the ciphertext by
+         *  my candidate with plugboard PLUG, using TEXT as scratch
+         *  space. */
+        private long score(int[] plug, int[] text) {
+            int size = _alphabet.size();
+            int[] scrambler = _cand._scrambler;
+            for (int i = 0; i < text.length; i += 1) {
+                text[i] = plug[scrambler[i * size + plug[_cipher[i]]]];
+            }
+            return _model.score(text, text.length);
+        }
+
+        /** The candidate whose plugboard is sought. */
+        private final Candidate _cand;
+
+        /** Source of random starting plugboards. */
+        private final Random _random;
+    }
+
+    /** Default largest number of plugboard cables tried. */
+    static final int DEFAULT_MAX_CABLES = 10;
+
+    /** Common alphabet of the machines tried. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of the machines tried. */
+    private final int _numRotors, _pawls;
+
+    /** Catalog of rotors from which keys are drawn. */
+    private final Collection<Rotor> _allRotors;
+
+    /** Model used to score decryptions. */
+    private final NgramModel _model;
+
+    /** Largest number of plugboard cables tried. */
+    private int _maxCables = DEFAULT_MAX_CABLES;
+
+    /** Ciphertext of the current recovery, as indices. */
+    private int[] _cipher;
+
+    /** A machine, without plugboard, for each rotor order tried. */
+    private Machine[] _machines;
+
+    /** Number of settings kept by each ranking task. */
+    private int _keep;
+
+    /** Settings kept by the ranking tasks. */
+    private ConcurrentLinkedQueue<Candidate> _ranked;
+
+}
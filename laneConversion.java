@@ -0,0 +1,127 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many short, independent messages, each with its own machine.
+ *  When the module jdk.incubator.vector is present (as when running with
+ *  --add-modules jdk.incubator.vector), groups of messages are converted
+ *  together in the lanes of a VectorLanes; otherwise, and for leftover
+ *  messages that do not fill a group, each machine converts its own
+ *  message.  Either way, the results and the final state of every machine
+ *  are those of converting each message separately with
+ *  Machine.convert(int[], int).
+ *  @author Aayush Gupta
+ */
+class LaneConversion {
+
+    /** A conversion for machines with alphabet ALPHA, NUMROTORS rotor
+     *  slots, and PAWLS pawls, whose rotors are drawn from ALLROTORS. */
+    LaneConversion(Alphabet alpha, int numRotors, int pawls,
+                   Collection<Rotor> allRotors) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _allRotors = allRotors;
+        if (vectorAvailable()) {
+            _lanes = new VectorLanes(alpha, numRotors, pawls, allRotors);
+            _width = VectorLanes.LANES;
+        } else {
+            _lanes = null;
+            _width = 1;
+        }
+    }
+
+    /** Return true iff the Vector API is available. */
+    static boolean vectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector")
+            .isPresent();
+    }
+
+    /** Return the number of messages converted at once: 1 if the Vector
+     *  API is not in use. */
+    int width() {
+        return _width;
+    }
+
+    /** Convert the first LENGTHS[I] indices of MESSAGES[I] in place with
+     *  MACHINES[I], for each I, advancing each machine as
+     *  Machine.convert(int[], int) would.  MACHINES must not be traced and
+     *  must be distinct. */
+    void convert(Machine[] machines, int[][] messages, int[] lengths) {
+        if (machines.length != messages.length
+            || machines.length != lengths.length) {
+            throw error("need one machine and length per message");
+        }
+        int i = 0;
+        if (_lanes != null) {
+            for (; i + _width <= machines.length; i += _width) {
+                _lanes.convert(machines, messages, lengths, i, _width);
+            }
+        }
+        for (; i < machines.length; i++) {
+            machines[i].convert(messages[i], lengths[i]);
+        }
+    }
+
+    /** Return true iff converting MESSAGES (as for convert) with copies of
+     *  MACHINES gives the same messages and final settings as converting
+     *  each with a copy of its machine alone.  Neither MACHINES nor
+     *  MESSAGES is changed.  This checks the vector lanes against the
+     *  scalar machine. */
+    boolean conforms(Machine[] machines, int[][] messages, int[] lengths) {
+        Machine[] lanes = new Machine[machines.length];
+        Machine[] scalar = new Machine[machines.length];
+        int[][] laneMessages = new int[messages.length][];
+        int[][] scalarMessages = new int[messages.length][];
+        for (int i = 0; i < machines.length; i++) {
+            lanes[i] = copy(machines[i]);
+            scalar[i] = copy(machines[i]);
+            laneMessages[i] = messages[i].clone();
+            scalarMessages[i] = messages[i].clone();
+        }
+        convert(lanes, laneMessages, lengths);
+        for (int i = 0; i < machines.length; i++) {
+            scalar[i].convert(scalarMessages[i], lengths[i]);
+            if (!Arrays.equals(laneMessages[i], scalarMessages[i])
+                || !Arrays.equals(lanes[i].settings(),
+                                  scalar[i].settings())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a new machine with the rotors, settings, and plugboard of
+     *  MACHINE. */
+    private Machine copy(Machine machine) {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _allRotors);
+        String[] names = new String[_numRotors];
+        for (int k = 0; k < _numRotors; k++) {
+            names[k] = machine.getRotor(k).name();
+        }
+        result.insertRotors(names);
+        result.setRotors(machine.settings());
+        result.setPlugboard(machine.plugboard());
+        return result;
+    }
+
+    /** Common alphabet of the machines. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of the machines. */
+    private final int _numRotors, _pawls;
+
+    /** Rotors available to the machines. */
+    private final Collection<Rotor> _allRotors;
+
+    /** The vector lanes, or null if the Vector API is not in use. */
+    private final VectorLanes _lanes;
+
+    /** Number of messages converted at once. */
+    private final int _width;
+
+}
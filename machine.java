@@ -1,8 +1,14 @@
 package enigma;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The Rotors in a
+ *  machine are never modified by it: the setting of each rotor slot is
+ *  part of the machine's own state, so any number of machines may share
+ *  the same collection of available rotors.
  *  @author Aayush Gupta
  */
 class Machine {
@@ -17,7 +23,20 @@ class Machine {
         _numRotors = numRotors;
         _pawls = pawls;
         _rotors = new Rotor[numRotors];
+        _settings = new int[numRotors];
         _allRotors = allRotors;
+        _catalog = allRotors.toArray(new Rotor[0]);
+        _registry = new HashMap<>();
+        for (int i = _catalog.length - 1; i >= 0; i--) {
+            _registry.put(_catalog[i].name(), i);
+        }
+        _used = new boolean[_catalog.length];
+        _catalogNotched = new boolean[_catalog.length][];
+        _catalogToNotch = new int[_catalog.length][];
+        _rotates = new boolean[numRotors];
+        _notched = new boolean[numRotors][];
+        _toNotch = new int[numRotors][];
+        _stepEvents = new long[numRotors];
         _plugBoard = null;
 
     }
@@ -34,15 +53,44 @@ class Machine {
 
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
-     *  undefined results. */
+     *  undefined results.  The Rotor's own setting is not that of slot K;
+     *  use setting(K). */
     Rotor getRotor(int k) {
         return _rotors[k];
     }
 
+    /** Return the current setting of the rotor in slot K. */
+    int setting(int k) {
+        return _settings[k];
+    }
+
     Alphabet alphabet() {
         return _alphabet;
     }
 
+    /** Return the index of the available rotor named NAME, in the order
+     *  of the collection of available rotors given to my constructor, or
+     *  -1 if there is none.  If several rotors have the same name, the
+     *  first is used. */
+    int rotorIndex(String name) {
+        Integer index = _registry.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /** Return rotorIndex of the name formed by characters START through
+     *  END-1 of LINE, comparing it with my rotors' names in place. */
+    int rotorIndex(String line, int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < _catalog.length; i++) {
+            String name = _catalog[i].name();
+            if (name.length() == len
+                && line.regionMatches(start, name, 0, len)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
@@ -52,27 +100,47 @@ class Machine {
             throw new EnigmaException("Incorrect number of Rotors provided.");
         }
 
+        int[] indices = new int[rotors.length];
         for (int i = 0; i < rotors.length; i++) {
-            for (int k = 0; k < rotors.length; k++) {
-                if (i != k && rotors[i].equals(rotors[k])) {
-                    throw new EnigmaException("Please try again. "
-                            + "Rotors are repeated.");
-                }
-            }
+            indices[i] = rotorIndex(rotors[i]);
         }
+        insertRotors(indices);
+    }
 
-        for (int i = 0; i < rotors.length; i++) {
-            for (Rotor rotor : _allRotors) {
-                if (rotors[i].equals(rotor.name())) {
-                    _rotors[i] = rotor;
-                    break;
-                }
+    /** Set my rotor slots to the available rotors whose indices (as for
+     *  rotorIndex) are INDICES (INDICES[0] is the reflector's).  An index
+     *  of -1 denotes a missing rotor.  Initially, all rotors are set at
+     *  their 0 setting. */
+    void insertRotors(int[] indices) {
+
+        if (_numRotors != indices.length) {
+            throw new EnigmaException("Incorrect number of Rotors provided.");
+        }
+
+        boolean repeated = false;
+        for (int index : indices) {
+            if (index >= 0) {
+                repeated |= _used[index];
+                _used[index] = true;
             }
+        }
+        for (int index : indices) {
+            if (index >= 0) {
+                _used[index] = false;
+            }
+        }
+        if (repeated) {
+            throw new EnigmaException("Please try again. "
+                    + "Rotors are repeated.");
+        }
 
-            if (_rotors[i] == null) {
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0) {
                 throw new EnigmaException("Please try again."
                         + " Rotor not found in the Machine.");
             }
+            _rotors[i] = _catalog[indices[i]];
+            _settings[i] = 0;
         }
 
         if (!_rotors[0].reflecting()) {
@@ -80,6 +148,51 @@ class Machine {
                     + "present or in incorrect location");
         }
 
+        _innerValid = false;
+        _core = null;
+        _kernel = null;
+        for (int i = 0; i < _numRotors; i++) {
+            _rotates[i] = _rotors[i].rotates();
+            _notched[i] = notchTable(indices[i]);
+            _toNotch[i] = toNotchTable(indices[i]);
+        }
+
+    }
+
+    /** Return the table telling whether each setting of available rotor
+     *  #INDEX is a notch, computing it on first use. */
+    private boolean[] notchTable(int index) {
+        if (_catalogNotched[index] == null) {
+            boolean[] notched = new boolean[_alphabet.size()];
+            String notches = _catalog[index].notches();
+            for (int k = 0; k < notches.length(); k++) {
+                notched[_alphabet.toInt(notches.charAt(k))] = true;
+            }
+            _catalogNotched[index] = notched;
+        }
+        return _catalogNotched[index];
+    }
+
+    /** Return the table giving, for each setting of available rotor
+     *  number INDEX, the number of steps from it to the next notch (0 at a
+     *  notch), or NO_NOTCH if the rotor has none. */
+    private int[] toNotchTable(int index) {
+        if (_catalogToNotch[index] == null) {
+            boolean[] notched = notchTable(index);
+            int size = notched.length;
+            int[] toNotch = new int[size];
+            int next = NO_NOTCH;
+            for (int s = 2 * size - 1; s >= 0; s--) {
+                if (notched[s % size]) {
+                    next = s;
+                }
+                if (s < size) {
+                    toNotch[s] = next == NO_NOTCH ? NO_NOTCH : next - s;
+                }
+            }
+            _catalogToNotch[index] = toNotch;
+        }
+        return _catalogToNotch[index];
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -92,11 +205,26 @@ class Machine {
         }
 
         for (int i = 0; i < _numRotors - 1; i++) {
-            _rotors[i + 1].set(setting.charAt(i));
+            _settings[i + 1] = _alphabet.toInt(setting.charAt(i));
         }
+        _innerValid = false;
+        _core = null;
 
     }
 
+    /** Set my rotors to SETTINGS, indexed by slot, which must have
+     *  numRotors() entries, each an index into my alphabet.  SETTINGS[0],
+     *  the reflector's setting, is ignored. */
+    void setRotors(int[] settings) {
+        if (settings.length != _numRotors) {
+            throw new EnigmaException("Please enter"
+                    + " valid number of settings.");
+        }
+        System.arraycopy(settings, 1, _settings, 1, _numRotors - 1);
+        _innerValid = false;
+        _core = null;
+    }
+
     /** Return the current plugboard's permutation. */
     Permutation plugboard() {
         return _plugBoard;
@@ -105,85 +233,454 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugBoard = plugboard;
+        _innerValid = false;
+        _kernel = null;
+    }
+
+    /** Use compiled conversion iff COMPILED.  A compiled machine caches,
+     *  for the current settings of all but the fast rotor, the
+     *  permutation performed by those rotors and the reflector, so that
+     *  each character costs the plugboard, two passes through the fast
+     *  rotor, and one table lookup, whatever the number of rotors.  The
+     *  cache is rebuilt only when a rotor other than the fast one moves.
+     *  Results are the same either way. */
+    void setCompiled(boolean compiled) {
+        _compiled = compiled;
+        _innerValid = false;
+    }
+
+    /** Use specialized conversion iff SPECIALIZED.  A specialized machine
+     *  converts with a class generated for its rotors (see
+     *  SpecializedConversion), which is found or generated when the
+     *  rotors or plugboard change, and takes precedence over compiled
+     *  conversion.  Results are the same either way.  Machines with more
+     *  than SpecializedConversion.MAX_SLOTS slots are never specialized. */
+    void setSpecialized(boolean specialized) {
+        _specialized =
+            specialized && numRotors() <= SpecializedConversion.MAX_SLOTS;
+        _kernel = null;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar
-                                (getRotor(r).setting()));
-            }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+        int result =
+            _tracer != null ? convertTraced(c) : applyRotors(c);
+        _converted += 1;
+        return result;
+    }
+
+    /** Trace all subsequent conversions with TRACER, or stop tracing if
+     *  TRACER is null.  Conversions done while no tracer is set involve no
+     *  tracing code. */
+    void setTracer(Tracer tracer) {
+        _tracer = tracer;
+    }
+
+    /** Add my counts of characters converted and rotor steps to METRICS
+     *  from now on, or stop counting if METRICS is null, and begin timing
+     *  a message.  Counts are kept in my own fields and added to METRICS
+     *  at the end of each call that converts a message or part of one,
+     *  and by endMessage; convert(int) leaves them to endMessage.  Steps
+     *  of rotors other than the fast one taken by convertParallel are not
+     *  counted. */
+    void setMetrics(EnigmaMetrics metrics) {
+        flushMetrics();
+        _metrics = metrics;
+        _messageChars = 0;
+        _messageStart = System.nanoTime();
+    }
+
+    /** If I have metrics, add my counts to them and, if I have converted
+     *  any characters since the last call (or setMetrics), record a
+     *  message that took the time since then. */
+    void endMessage() {
+        if (_metrics == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        flushMetrics();
+        if (_messageChars > 0) {
+            _metrics.recordMessage(now - _messageStart);
         }
+        _messageChars = 0;
+        _messageStart = now;
+    }
 
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
+    /** Add my counts of characters converted and rotor steps to my
+     *  metrics, if any, and clear them. */
+    private void flushMetrics() {
+        if (_metrics == null || _converted == 0) {
+            return;
         }
-        c = applyRotors(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
+        int last = _numRotors - 1;
+        if (_rotates[last] && _pawls > 0) {
+            _stepEvents[last] += _converted;
         }
-        return c;
+        _metrics.add(_converted, _stepEvents);
+        _messageChars += _converted;
+        _converted = 0;
+        Arrays.fill(_stepEvents, 0);
     }
 
-    /** Advance all rotors to their next position. */
-    private void advanceRotors() {
-        for (int i = _numRotors - numPawls(); i < _numRotors; i++) {
-            if (i == _numRotors - 1) {
-                _rotors[i].advance();
-            } else {
-                if (_rotors[i].rotates()) {
-                    if (_rotors[i + 1].atNotch()) {
-                        _rotors[i].advance();
-                        _rotors[i + 1].advance();
-                        i++;
-                        if (i == _numRotors - 1) {
-                            break;
-                        }
+    /** Return the result of convert(C), recording it with my tracer. */
+    private int convertTraced(int c) {
+        int slot = _tracer.begin(_settings);
+        int result = applyRotors(c);
+        if (slot >= 0) {
+            _tracer.end(slot, c, result, _settings, _rotors, _plugBoard);
+        }
+        return result;
+    }
+
+    /** Return the current settings of my rotors, indexed by slot (so that
+     *  element 0 is the reflector's setting). */
+    int[] settings() {
+        return _settings.clone();
+    }
+
+    /** Return the settings, indexed by slot, that my rotors will have
+     *  after converting OFFSET more characters. */
+    int[] settingsAt(long offset) {
+        int[] posn = settings();
+        jump(posn, offset);
+        return posn;
+    }
+
+    /** Advance the rotor settings POSN, indexed by slot, by one
+     *  character.  For each slot with a pawl, from left to right, if the
+     *  rotor to its right is at a notch, both rotors advance and that
+     *  rotor is not considered again; the fast rotor always advances.
+     *  Returns true iff a rotor other than the fast one moved. */
+    boolean step(int[] posn) {
+        int last = _numRotors - 1;
+        boolean slowMoved = false;
+        for (int i = _numRotors - _pawls; i < _numRotors; i++) {
+            if (i == last) {
+                advance(posn, i);
+            } else if (_rotates[i] && _notched[i + 1][posn[i + 1]]) {
+                advance(posn, i);
+                advance(posn, i + 1);
+                if (posn == _settings) {
+                    _stepEvents[i] += 1;
+                    if (i + 1 < last && _rotates[i + 1]) {
+                        _stepEvents[i + 1] += 1;
                     }
                 }
+                slowMoved = true;
+                i++;
+                if (i == last) {
+                    break;
+                }
             }
         }
+        return slowMoved;
+    }
 
+    /** Advance the rotor settings POSN, indexed by slot, by N characters.
+     *  Between notch events only the fast rotor moves, so each run of such
+     *  steps is taken at once, using the distance from the fast rotor's
+     *  setting to its next notch.  While the rotor next to the fast one
+     *  is short of its own notch, whole revolutions of the fast rotor are
+     *  also taken at once, each moving that rotor once per notch of the
+     *  fast rotor.  The cost is thus proportional to the number of times
+     *  the rotor next to the fast one reaches a notch, rather than to
+     *  N. */
+    void jump(int[] posn, long n) {
+        int size = _alphabet.size();
+        int last = _numRotors - 1;
+        int notches = 0;
+        for (int s = 0; s < size; s++) {
+            if (_toNotch[last][s] == 0) {
+                notches += 1;
+            }
+        }
+        while (n > 0) {
+            int quiet = quietSteps(posn, n);
+            if (quiet == 0) {
+                long turns = fullTurns(posn, n, notches);
+                if (turns > 0) {
+                    posn[last - 1] =
+                        (int) ((posn[last - 1] + turns * notches) % size);
+                    n -= turns * size;
+                } else {
+                    step(posn);
+                    n -= 1;
+                }
+            } else if (!_rotates[last] || _pawls == 0) {
+                return;
+            } else if (_toNotch[last][posn[last]] == NO_NOTCH) {
+                posn[last] = (int) ((posn[last] + n) % size);
+                return;
+            } else {
+                posn[last] = (posn[last] + quiet) % size;
+                n -= quiet;
+            }
+        }
     }
 
+    /** Return the number of whole revolutions, taking at most MAX steps,
+     *  that the fast rotor may make from rotor settings POSN, indexed by
+     *  slot, during which the only other rotor to move is the one next to
+     *  it, which moves once at each of the fast rotor's NOTCHES notches.
+     *  Returns 0 unless the fast rotor is at a notch, so that a
+     *  revolution begins with a notch event.  The rotor next to the fast
+     *  one must not reach a notch during the revolutions, since it would
+     *  then move at the next step, whether or not the fast rotor is at a
+     *  notch. */
+    private long fullTurns(int[] posn, long max, int notches) {
+        int last = _numRotors - 1;
+        int middle = last - 1;
+        int first = _numRotors - _pawls;
+        if (_pawls < 2 || !_rotates[last] || !_rotates[middle]
+            || _toNotch[last][posn[last]] != 0) {
+            return 0;
+        }
+        for (int i = first + 1; i < last; i++) {
+            if (_notched[i][posn[i]]) {
+                return 0;
+            }
+        }
+        long turns = max / _alphabet.size();
+        int toNotch = _toNotch[middle][posn[middle]];
+        if (middle > first && toNotch != NO_NOTCH) {
+            turns = Math.min(turns, (toNotch - 1) / notches);
+        }
+        return turns;
+    }
+
+    /** Return the number of steps, at most MAX, that rotor settings POSN,
+     *  indexed by slot, may take next during which no rotor but the fast
+     *  one moves.  Returns 0 if the next step may move another rotor. */
+    int quietSteps(int[] posn, long max) {
+        int last = _numRotors - 1;
+        for (int i = _numRotors - _pawls + 1; i < last; i++) {
+            if (_notched[i][posn[i]]) {
+                return 0;
+            }
+        }
+        if (!_rotates[last] || _pawls == 0) {
+            return (int) Math.min(max, Integer.MAX_VALUE);
+        }
+        return (int) Math.min(max, _toNotch[last][posn[last]]);
+    }
+
+    /** Advance the setting of slot K in POSN by one, if the rotor in
+     *  that slot rotates. */
+    private void advance(int[] posn, int k) {
+        if (_rotates[k]) {
+            posn[k] = (posn[k] + 1) % _alphabet.size();
+        }
+    }
+
+    /** Return the result of applying the plugboard and rotors to C (as an
+     *  index in the range 0..alphabet size - 1) with the rotors at
+     *  settings POSN, indexed by slot.  Does not advance or otherwise
+     *  change the machine. */
+    int convertAt(int c, int[] posn) {
+        int first = _numRotors - _pawls;
+        int[] core = _core;
+        if (_plugBoard != null) {
+            c = _plugBoard.permute(c);
+        }
+        for (int i = _numRotors - 1; i >= first; i--) {
+            c = _rotors[i].convertForward(c, posn[i]);
+        }
+        if (core != null && Arrays.equals(posn, 0, first, _coreSettings, 0,
+                                          first)) {
+            c = core[c];
+        } else {
+            for (int i = first - 1; i >= 0; i--) {
+                c = _rotors[i].convertForward(c, posn[i]);
+            }
+            for (int i = 1; i < first; i++) {
+                c = _rotors[i].convertBackward(c, posn[i]);
+            }
+        }
+        for (int i = first; i < _numRotors; i++) {
+            c = _rotors[i].convertBackward(c, posn[i]);
+        }
+        if (_plugBoard != null) {
+            c = _plugBoard.permute(c);
+        }
+        return c;
+    }
 
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
-        advanceRotors();
-        if (plugboard() != null) {
-            c = _plugBoard.permute(c);
+        if (_core == null) {
+            compileCore();
+        }
+        if (_specialized) {
+            if (_kernel == null) {
+                _kernel = SpecializedConversion.kernel(this);
+            }
+            step(_settings);
+            return _kernel.convertAt(c, _settings);
         }
-        for (int i = _numRotors - 1; i >= 0; i--) {
-            c = _rotors[i].convertForward(c);
+        if (!_compiled) {
+            step(_settings);
+            return convertAt(c, _settings);
         }
-        for (int i = 1; i < _numRotors; i++) {
-            c = _rotors[i].convertBackward(c);
+        if (step(_settings) || !_innerValid) {
+            compileInner();
+        }
+        return convertThrough(c, _settings[_numRotors - 1]);
+    }
+
+    /** Return the result of applying the plugboard, the fast rotor at
+     *  setting FAST, and the cached inner permutation to C. */
+    private int convertThrough(int c, int fast) {
+        int last = _numRotors - 1;
+        if (_plugBoard != null) {
+            c = _plugBoard.permute(c);
         }
-        if (plugboard() != null) {
+        c = _rotors[last].convertForward(c, fast);
+        c = _inner[c];
+        c = _rotors[last].convertBackward(c, fast);
+        if (_plugBoard != null) {
             c = _plugBoard.permute(c);
         }
         return c;
     }
 
+    /** Recompute the permutation performed by the rotors in the slots
+     *  without pawls, which never move, at their current settings:
+     *  through each of them to the reflector and back, as one
+     *  permutation. */
+    private void compileCore() {
+        int first = _numRotors - _pawls;
+        Permutation core =
+            _rotors[0].permutation().conjugateByRotation(_settings[0]);
+        for (int i = 1; i < first; i++) {
+            Permutation slot =
+                _rotors[i].permutation().conjugateByRotation(_settings[i]);
+            core = slot.compose(core).compose(slot.inverse());
+        }
+        int[] table = new int[_alphabet.size()];
+        for (int x = 0; x < table.length; x++) {
+            table[x] = core.permute(x);
+        }
+        _coreSettings = Arrays.copyOf(_settings, first);
+        _core = table;
+    }
+
+    /** Recompute the permutation performed by all rotors but the fast one
+     *  at their current settings. */
+    private void compileInner() {
+        int size = _alphabet.size();
+        int last = _numRotors - 1;
+        if (_inner == null || _inner.length != size) {
+            _inner = new int[size];
+        }
+        int first = _numRotors - _pawls;
+        for (int x = 0; x < size; x++) {
+            int c = x;
+            for (int i = last - 1; i >= first; i--) {
+                c = _rotors[i].convertForward(c, _settings[i]);
+            }
+            c = _core[c];
+            for (int i = first; i < last; i++) {
+                c = _rotors[i].convertBackward(c, _settings[i]);
+            }
+            _inner[x] = c;
+        }
+        _innerValid = true;
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String newMsg = "";
-        for (int i = 0; i < msg.length(); i++) {
-            char result = _alphabet.toChar
-                    (convert(_alphabet.toInt(msg.charAt(i))));
-            newMsg = newMsg + result;
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf);
+        return new String(buf);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF, storing the
+     *  results at the same positions in OUT and updating the state of the
+     *  rotors accordingly.  IN and OUT may be the same array, in which case
+     *  the conversion is done in place.  Produces the same results as
+     *  convert(String) on the same characters. */
+    void convert(char[] in, int off, int len, char[] out) {
+        if (_tracer != null) {
+            for (int i = off; i < off + len; i++) {
+                out[i] = _alphabet.toChar(
+                        convertTraced(_alphabet.toInt(in[i])));
+            }
+        } else {
+            for (int i = off; i < off + len; i++) {
+                out[i] = _alphabet.toChar(
+                        applyRotors(_alphabet.toInt(in[i])));
+            }
+        }
+        _converted += len;
+        flushMetrics();
+    }
+
+    /** Convert the first LEN alphabet indices in IDX in place, updating
+     *  the state of the rotors accordingly. */
+    void convert(int[] idx, int len) {
+        if (_tracer != null) {
+            for (int i = 0; i < len; i++) {
+                idx[i] = convertTraced(idx[i]);
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                idx[i] = applyRotors(idx[i]);
+            }
         }
-        return newMsg;
+        _converted += len;
+        flushMetrics();
     }
 
+    /** Convert the LEN characters of IN starting at OFF into the same
+     *  positions of OUT, as for convert(IN, OFF, LEN, OUT), but splitting
+     *  the characters into chunks that are converted in parallel on
+     *  POOL.  Each chunk starts from the rotor settings computed by jump
+     *  for its offset, so the results are identical to those of a
+     *  sequential conversion, and afterwards my rotors are left at the
+     *  same settings. */
+    void convertParallel(char[] in, int off, int len, char[] out,
+                         ForkJoinPool pool) {
+        int chunk = Math.max(MIN_CHUNK, len / (pool.getParallelism() * 4));
+        if (_tracer != null || len <= chunk) {
+            convert(in, off, len, out);
+            return;
+        }
+        if (_core == null) {
+            compileCore();
+        }
+        int numChunks = (int) ((len + (long) chunk - 1) / chunk);
+        int[][] starts = new int[numChunks][];
+        int[] posn = settings();
+        for (int k = 0; k < numChunks; k++) {
+            starts[k] = posn.clone();
+            jump(posn, Math.min(chunk, len - (long) k * chunk));
+        }
+        pool.invoke(new ParallelConversion(this, in, out, off, len, chunk,
+                                           starts, 0, numChunks));
+        System.arraycopy(posn, 0, _settings, 0, _numRotors);
+        _innerValid = false;
+        _converted += len;
+        flushMetrics();
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into OUT using the
+     *  common fork/join pool.  See convertParallel(IN, OFF, LEN, OUT,
+     *  POOL). */
+    void convertParallel(char[] in, int off, int len, char[] out) {
+        convertParallel(in, off, len, out, ForkJoinPool.commonPool());
+    }
+
+    /** Smallest number of characters converted by one parallel task. */
+    private static final int MIN_CHUNK = 1 << 14;
+
+    /** Entry in a table of steps to the next notch for a rotor with no
+     *  notches. */
+    private static final int NO_NOTCH = Integer.MAX_VALUE;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -199,7 +696,87 @@ class Machine {
     /** Rotors in the machine. */
     private Rotor[] _rotors;
 
+    /** Current setting of the rotor in each slot. */
+    private final int[] _settings;
+
+    /** Records my conversions, or null if they are not traced. */
+    private Tracer _tracer;
+
+    /** True iff I use compiled conversion. */
+    private boolean _compiled;
+
+    /** Metrics to which my counts are added, or null. */
+    private EnigmaMetrics _metrics;
+
+    /** Characters converted since my counts were last added to
+     *  _metrics. */
+    private long _converted;
+
+    /** Steps of the rotor in each slot, other than those of the fast rotor
+     *  counted by _converted, since my counts were last added to
+     *  _metrics. */
+    private final long[] _stepEvents;
+
+    /** Characters of the current message added to _metrics. */
+    private long _messageChars;
+
+    /** Value of System.nanoTime() when the current message began. */
+    private long _messageStart;
+
+    /** True iff I use specialized conversion. */
+    private boolean _specialized;
+
+    /** Specialized conversion for my rotors and plugboard, or null if not
+     *  yet found since they were last set. */
+    private SpecializedConversion.Kernel _kernel;
+
+    /** True iff _inner is up to date with my rotors, their settings, and
+     *  my plugboard. */
+    private boolean _innerValid;
+
+    /** The permutation performed by all rotors but the fast one at their
+     *  current settings (when _innerValid). */
+    private int[] _inner;
+
+    /** The permutation performed by the rotors in the slots without pawls
+     *  at settings _coreSettings, from the leftmost pawl slot to the
+     *  reflector and back, or null if not computed since my rotors or
+     *  settings were last set. */
+    private int[] _core;
+
+    /** Settings, indexed by slot, of the slots without pawls for which
+     *  _core was computed. */
+    private int[] _coreSettings;
+
+    /** Whether the rotor in each slot rotates. */
+    private final boolean[] _rotates;
+
+    /** For each slot, whether each setting of its rotor is a notch. */
+    private final boolean[][] _notched;
+
+    /** For each slot, the number of steps from each setting of its rotor
+     *  to the next notch (see toNotchTable). */
+    private final int[][] _toNotch;
+
+    /** For each available rotor, indexed like _catalog, its table of
+     *  steps to the next notch, or null if not yet computed. */
+    private final int[][] _catalogToNotch;
+
+    /** For each available rotor, indexed like _catalog, whether each
+     *  setting is a notch, or null if not yet computed. */
+    private final boolean[][] _catalogNotched;
+
     /** Collection of all rotors available to the machine. */
     private final Collection<Rotor> _allRotors;
 
+    /** The available rotors, in the order of _allRotors. */
+    private final Rotor[] _catalog;
+
+    /** Index in _catalog of the first rotor with each name. */
+    private final HashMap<String, Integer> _registry;
+
+    /** Scratch space used to detect repeated rotors, indexed like
+     *  _catalog. */
+    private final boolean[] _used;
+
 }
@@ -0,0 +1,193 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Applies a machine to a file of setting and message lines by mapping it
+ *  into memory, converting it either in place or into a second mapped
+ *  file of the same length.  Unlike MessageStream, the layout of the input
+ *  is preserved: setting lines (lines whose first non-blank character is
+ *  '*') are copied unchanged, and within message lines each byte that is a
+ *  character of the machine's alphabet is replaced by its conversion while
+ *  all other bytes (blanks, line terminators) are copied.  The file is
+ *  mapped a window of WINDOW_SIZE bytes at a time, so files larger than
+ *  2 GB may be converted.
+ *  @author Aayush Gupta
+ */
+class MappedConversion {
+
+    /** Number of bytes of the file mapped at once. */
+    static final int WINDOW_SIZE = 1 << 26;
+
+    /** Number of characters converted by the machine at a time. */
+    private static final int BATCH_SIZE = 1 << 12;
+
+    /** A conversion that uses MACHINE, passing each setting line to
+     *  SETUP. */
+    MappedConversion(Machine machine, Consumer<String> setUp) {
+        _machine = machine;
+        _setUp = setUp;
+        Alphabet alphabet = machine.alphabet();
+        _code = new int[256];
+        _chars = new byte[alphabet.size()];
+        Arrays.fill(_code, -1);
+        for (int i = 0; i < alphabet.size(); i++) {
+            char ch = alphabet.toChar(i);
+            if (ch > 0xff) {
+                throw error("mapped mode requires an alphabet of"
+                            + " single-byte characters");
+            }
+            _code[ch] = i;
+            _chars[i] = (byte) ch;
+        }
+    }
+
+    /** Convert all of IN into OUT, which may be IN itself, in which case
+     *  the file is converted in place.  Both channels must be open for
+     *  writing if they are the same, and IN must be open for reading. */
+    void process(FileChannel in, FileChannel out) throws IOException {
+        long size = in.size();
+        boolean inPlace = in == out;
+        _state = LINE_START;
+        for (long pos = 0; pos < size; pos += WINDOW_SIZE) {
+            int len = (int) Math.min(WINDOW_SIZE, size - pos);
+            MappedByteBuffer src =
+                in.map(inPlace ? FileChannel.MapMode.READ_WRITE
+                       : FileChannel.MapMode.READ_ONLY, pos, len);
+            MappedByteBuffer dst = inPlace ? src
+                : out.map(FileChannel.MapMode.READ_WRITE, pos, len);
+            convertWindow(src, dst, len);
+            flushPending(dst);
+            dst.force();
+        }
+        if (_state == SETTING) {
+            endSetting();
+        }
+    }
+
+    /** Convert the first LEN bytes of SRC into DST. */
+    private void convertWindow(MappedByteBuffer src, MappedByteBuffer dst,
+                               int len) {
+        for (int i = 0; i < len; i++) {
+            int ch = src.get(i) & 0xff;
+            switch (_state) {
+            case LINE_START:
+                if (ch == '*') {
+                    flushPending(dst);
+                    _state = SETTING;
+                    _setting.setLength(0);
+                    _setting.append('*');
+                } else if (ch != ' ' && ch != '\t' && ch != '\r'
+                           && ch != '\n') {
+                    if (!_configured) {
+                        throw error("input must begin with a setting line");
+                    }
+                    _state = MESSAGE;
+                    message(src, dst, i, ch);
+                    continue;
+                }
+                break;
+            case SETTING:
+                if (ch == '\n') {
+                    endSetting();
+                } else {
+                    _setting.append((char) ch);
+                }
+                break;
+            default:
+                message(src, dst, i, ch);
+                continue;
+            }
+            if (src != dst) {
+                dst.put(i, (byte) ch);
+            }
+        }
+    }
+
+    /** Process byte CH, at index I of SRC, of a message line, arranging
+     *  for its conversion to be stored at index I of DST. */
+    private void message(MappedByteBuffer src, MappedByteBuffer dst, int i,
+                         int ch) {
+        int c = _code[ch];
+        if (c >= 0) {
+            if (_pending == BATCH_SIZE) {
+                flushPending(dst);
+            }
+            _batch[_pending] = c;
+            _where[_pending] = i;
+            _pending += 1;
+            return;
+        }
+        if (ch == '\n') {
+            _state = LINE_START;
+        } else if (ch != ' ' && ch != '\t' && ch != '\r') {
+            throw error("character '%c' is not in the alphabet", (char) ch);
+        }
+        if (src != dst) {
+            dst.put(i, (byte) ch);
+        }
+    }
+
+    /** Finish the current setting line and configure the machine from
+     *  it. */
+    private void endSetting() {
+        _setUp.accept(_setting.toString());
+        _configured = true;
+        _state = LINE_START;
+    }
+
+    /** Convert the pending message characters and store them in DST. */
+    private void flushPending(MappedByteBuffer dst) {
+        _machine.convert(_batch, _pending);
+        for (int k = 0; k < _pending; k++) {
+            dst.put(_where[k], _chars[_batch[k]]);
+        }
+        _pending = 0;
+    }
+
+    /** State at the start of a line, before any non-blank character. */
+    private static final int LINE_START = 0;
+
+    /** State while reading a setting line. */
+    private static final int SETTING = 1;
+
+    /** State while reading a message line. */
+    private static final int MESSAGE = 2;
+
+    /** The machine that converts messages. */
+    private final Machine _machine;
+
+    /** Configures _machine from a setting line. */
+    private final Consumer<String> _setUp;
+
+    /** Alphabet index of each byte value, or -1 if it is not in the
+     *  alphabet. */
+    private final int[] _code;
+
+    /** Byte value of each alphabet index. */
+    private final byte[] _chars;
+
+    /** The current state: LINE_START, SETTING, or MESSAGE. */
+    private int _state;
+
+    /** True once a setting line has been seen. */
+    private boolean _configured;
+
+    /** The setting line being read, which may span windows. */
+    private final StringBuilder _setting = new StringBuilder();
+
+    /** Alphabet indices of message characters not yet converted. */
+    private final int[] _batch = new int[BATCH_SIZE];
+
+    /** Index in the current window of each pending character. */
+    private final int[] _where = new int[BATCH_SIZE];
+
+    /** Number of valid entries in _batch. */
+    private int _pending;
+
+}
@@ -0,0 +1,216 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Applies a machine to a stream of setting and message lines read from a
+ *  channel, writing the converted messages, in groups of five, to another
+ *  channel.  Input is consumed a buffer at a time, so the size of the input
+ *  is not limited by the heap.  Input bytes are taken to be characters in
+ *  the range 0-255 (ISO-8859-1), so every character of the machine's
+ *  alphabet must be in that range.  Lines may end with CR LF, and blank
+ *  lines before the first setting line are ignored.
+ *  @author Aayush Gupta
+ */
+class MessageStream {
+
+    /** Size of the input and output buffers, in bytes. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of characters converted by the machine at a time. */
+    private static final int BATCH_SIZE = 1 << 12;
+
+    /** Number of characters in an output group. */
+    private static final int GROUP_SIZE = 5;
+
+    /** A stream that converts messages with MACHINE, passing each setting
+     *  line (a line whose first non-blank character is '*') to SETUP. */
+    MessageStream(Machine machine, Consumer<String> setUp) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _setUp = setUp;
+        for (int i = 0; i < _alphabet.size(); i++) {
+            if (_alphabet.toChar(i) > 0xff) {
+                throw error("streaming mode requires an alphabet of"
+                            + " single-byte characters");
+            }
+        }
+    }
+
+    /** Read all of IN, writing the converted messages to OUT. */
+    void process(ReadableByteChannel in, WritableByteChannel out)
+        throws IOException {
+        ByteBuffer inBuf = ByteBuffer.allocate(BUFFER_SIZE);
+        _out = out;
+        _outBuf = ByteBuffer.allocate(BUFFER_SIZE);
+        _state = LINE_START;
+        while (in.read(inBuf) >= 0) {
+            inBuf.flip();
+            while (inBuf.hasRemaining()) {
+                accept(inBuf.get() & 0xff);
+            }
+            inBuf.clear();
+        }
+        if (_state == SETTING) {
+            endSetting();
+        } else if (_state == MESSAGE) {
+            endMessageLine();
+        }
+        drain();
+    }
+
+    /** Process the input character CH according to my current state. */
+    private void accept(int ch) {
+        switch (_state) {
+        case SETTING:
+            if (ch == '\n') {
+                endSetting();
+            } else {
+                _setting.append((char) ch);
+            }
+            break;
+        case LINE_START:
+            if (ch == '*') {
+                _state = SETTING;
+                _setting.setLength(0);
+                _setting.append('*');
+                break;
+            }
+            if (isBlank(ch) || (ch == '\n' && !_configured)) {
+                break;
+            }
+            if (!_configured) {
+                throw error("input must begin with a setting line");
+            }
+            _state = MESSAGE;
+            _group = 0;
+            message(ch);
+            break;
+        default:
+            message(ch);
+            break;
+        }
+    }
+
+    /** Process character CH of a message line. */
+    private void message(int ch) {
+        if (ch == '\n') {
+            endMessageLine();
+        } else if (!isBlank(ch)) {
+            if (_pending == BATCH_SIZE) {
+                flushPending();
+            }
+            _batch[_pending] = _alphabet.toInt((char) ch);
+            _pending += 1;
+        }
+    }
+
+    /** Finish the current setting line and configure the machine from
+     *  it, less any carriage return that ended it. */
+    private void endSetting() {
+        int len = _setting.length();
+        if (_setting.charAt(len - 1) == '\r') {
+            _setting.setLength(len - 1);
+        }
+        _setUp.accept(_setting.toString());
+        _configured = true;
+        _state = LINE_START;
+    }
+
+    /** Finish the current message line. */
+    private void endMessageLine() {
+        flushPending();
+        put('\n');
+        _state = LINE_START;
+    }
+
+    /** Convert the pending message characters and write them out in
+     *  groups. */
+    private void flushPending() {
+        _machine.convert(_batch, _pending);
+        for (int i = 0; i < _pending; i++) {
+            if (_group == GROUP_SIZE) {
+                put(' ');
+                _group = 0;
+            }
+            put(_alphabet.toChar(_batch[i]));
+            _group += 1;
+        }
+        _pending = 0;
+    }
+
+    /** Append CH to the output, writing the output buffer if it is
+     *  full. */
+    private void put(char ch) {
+        if (!_outBuf.hasRemaining()) {
+            drain();
+        }
+        _outBuf.put((byte) ch);
+    }
+
+    /** Write the contents of the output buffer to the output channel. */
+    private void drain() {
+        _outBuf.flip();
+        try {
+            while (_outBuf.hasRemaining()) {
+                _out.write(_outBuf);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _outBuf.clear();
+    }
+
+    /** Return true iff CH is ignored within message lines. */
+    private static boolean isBlank(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\r';
+    }
+
+    /** State at the start of a line, before any non-blank character. */
+    private static final int LINE_START = 0;
+
+    /** State while reading a setting line. */
+    private static final int SETTING = 1;
+
+    /** State while reading a message line. */
+    private static final int MESSAGE = 2;
+
+    /** The machine that converts messages. */
+    private final Machine _machine;
+
+    /** The alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Configures _machine from a setting line. */
+    private final Consumer<String> _setUp;
+
+    /** The current state: LINE_START, SETTING, or MESSAGE. */
+    private int _state;
+
+    /** True once a setting line has been seen. */
+    private boolean _configured;
+
+    /** The setting line being read. */
+    private final StringBuilder _setting = new StringBuilder();
+
+    /** Alphabet indices of message characters not yet converted. */
+    private final int[] _batch = new int[BATCH_SIZE];
+
+    /** Number of valid entries in _batch. */
+    private int _pending;
+
+    /** Number of characters in the current output group. */
+    private int _group;
+
+    /** Destination of converted messages. */
+    private WritableByteChannel _out;
+
+    /** Converted characters not yet written to _out. */
+    private ByteBuffer _outBuf;
+
+}
@@ -0,0 +1,101 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A table of n-gram log-probabilities over an alphabet, used to score
+ *  candidate decryptions.  The table is a flat int array indexed by the
+ *  n-gram's letters read as a number in base (alphabet size), holding
+ *  scaled base-10 logarithms, so that scoring a text is a loop of integer
+ *  additions.
+ *  @author Aayush Gupta
+ */
+class NgramModel {
+
+    /** Scale factor applied to log-probabilities. */
+    static final int SCALE = 1000;
+
+    /** Largest table size accepted. */
+    private static final int MAX_ENTRIES = 1 << 24;
+
+    /** A model of the ORDER-grams of the characters of CORPUS that are in
+     *  ALPHABET (others are skipped), with add-one smoothing. */
+    NgramModel(Alphabet alphabet, int order, CharSequence corpus) {
+        long entries = 1;
+        for (int i = 0; i < order; i += 1) {
+            entries *= alphabet.size();
+        }
+        if (order < 1 || entries > MAX_ENTRIES) {
+            throw error("n-gram order %d is too large for the alphabet",
+                        order);
+        }
+        _alphabet = alphabet;
+        _order = order;
+        _entries = (int) entries;
+        _prefixes = _entries / alphabet.size();
+        long[] counts = new long[_entries];
+        long total = 0;
+        int index = 0, seen = 0;
+        for (int i = 0; i < corpus.length(); i += 1) {
+            char ch = corpus.charAt(i);
+            if (!alphabet.contains(ch)) {
+                continue;
+            }
+            index = (index % _prefixes) * alphabet.size()
+                + alphabet.toInt(ch);
+            seen += 1;
+            if (seen >= order) {
+                counts[index] += 1;
+                total += 1;
+            }
+        }
+        _table = new int[_entries];
+        double denom = total + _entries;
+        for (int k = 0; k < _entries; k += 1) {
+            _table[k] = (int) Math.round(SCALE
+                                         * Math.log10((counts[k] + 1)
+                                                      / denom));
+        }
+    }
+
+    /** Return the alphabet I model. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the length of my n-grams. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the score of the first LEN alphabet indices of TEXT: the sum
+     *  of the scaled log-probabilities of its n-grams.  Higher is more
+     *  plausible. */
+    long score(int[] text, int len) {
+        int size = _alphabet.size();
+        long sum = 0;
+        int index = 0;
+        for (int i = 0; i < len; i += 1) {
+            index = (index % _prefixes) * size + text[i];
+            if (i >= _order - 1) {
+                sum += _table[index];
+            }
+        }
+        return sum;
+    }
+
+    /** The alphabet I model. */
+    private final Alphabet _alphabet;
+
+    /** Length of my n-grams. */
+    private final int _order;
+
+    /** Number of distinct n-grams. */
+    private final int _entries;
+
+    /** Number of distinct (n-1)-grams. */
+    private final int _prefixes;
+
+    /** Scaled log-probability of each n-gram. */
+    private final int[] _table;
+
+}
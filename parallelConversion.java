@@ -0,0 +1,74 @@
+package enigma;
+
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that converts a range of chunks of a message, each
+ *  starting from its own precomputed rotor settings.
+ *  @author Aayush Gupta
+ */
+class ParallelConversion extends RecursiveAction {
+
+    /** A task that uses MACHINE to convert chunks LO through HI-1 of the LEN
+     *  characters of IN starting at OFF into the same positions of OUT.
+     *  Each chunk holds CHUNK characters (the last may hold fewer), and
+     *  chunk K begins with the rotors at settings STARTS[K].  MACHINE's
+     *  own settings are neither used nor changed. */
+    ParallelConversion(Machine machine, char[] in, char[] out, int off,
+                       int len, int chunk, int[][] starts, int lo, int hi) {
+        _machine = machine;
+        _in = in;
+        _out = out;
+        _off = off;
+        _len = len;
+        _chunk = chunk;
+        _starts = starts;
+        _lo = lo;
+        _hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+        if (_hi - _lo == 1) {
+            convertChunk(_lo);
+            return;
+        }
+        int mid = (_lo + _hi) >>> 1;
+        invokeAll(new ParallelConversion(_machine, _in, _out, _off, _len,
+                                         _chunk, _starts, _lo, mid),
+                  new ParallelConversion(_machine, _in, _out, _off, _len,
+                                         _chunk, _starts, mid, _hi));
+    }
+
+    /** Convert chunk K. */
+    private void convertChunk(int k) {
+        Alphabet alpha = _machine.alphabet();
+        int[] posn = _starts[k].clone();
+        long first = (long) k * _chunk;
+        int start = _off + (int) first;
+        int end = _off + (int) Math.min(_len, first + _chunk);
+        for (int i = start; i < end; i++) {
+            _machine.step(posn);
+            _out[i] = alpha.toChar(_machine.convertAt(alpha.toInt(_in[i]),
+                                                      posn));
+        }
+    }
+
+    /** The machine whose rotors and plugboard are used. */
+    private final Machine _machine;
+
+    /** Source and destination of the characters. */
+    private final char[] _in, _out;
+
+    /** Offset of the first character and total number of characters. */
+    private final int _off, _len;
+
+    /** Number of characters in each chunk. */
+    private final int _chunk;
+
+    /** Rotor settings, indexed by slot, at the start of each chunk. */
+    private final int[][] _starts;
+
+    /** First chunk and one past the last chunk converted by this task. */
+    private final int _lo, _hi;
+
+}
@@ -1,9 +1,13 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The cycles are compiled once, when the
+ *  permutation is constructed, into a forward and an inverse table, so that
+ *  permute and invert are single array lookups.
  *  @author Aayush Gupta
  */
 class Permutation {
@@ -14,23 +18,158 @@ class Permutation {
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
+        this(cycles, alphabet, false);
+    }
+
+    /** Set this Permutation to that specified by CYCLES over ALPHABET, as
+     *  for Permutation(CYCLES, ALPHABET).  If STRICT, CYCLES must be a
+     *  well-formed sequence of parenthesized cycles, each containing at
+     *  least one character of ALPHABET, and no character may appear more
+     *  than once in CYCLES; otherwise an EnigmaException is thrown.  If not
+     *  STRICT, parentheses simply separate cycles and the result of a
+     *  character appearing in more than one cycle is undefined. */
+    Permutation(String cycles, Alphabet alphabet, boolean strict) {
+        this(cycles, 0, cycles.length(), alphabet, strict);
+    }
+
+    /** Set this Permutation to that specified by the characters START
+     *  through END-1 of CYCLES over ALPHABET, as for Permutation(CYCLES,
+     *  ALPHABET, STRICT), but without copying them. */
+    Permutation(String cycles, int start, int end, Alphabet alphabet,
+                boolean strict) {
+        _alphabet = alphabet;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = _inverse[i] = i;
+        }
+        if (strict) {
+            _seen = new boolean[alphabet.size()];
+        }
+        parseCycles(cycles, start, end, strict);
+        _seen = null;
+    }
+
+    /** Set this Permutation to the one that maps each index I of ALPHABET
+     *  to TABLE[I].  TABLE must contain each index exactly once; it is
+     *  copied. */
+    Permutation(int[] table, Alphabet alphabet) {
+        if (table.length != alphabet.size()) {
+            throw error("permutation table has the wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = table.clone();
+        _inverse = new int[table.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < table.length; i++) {
+            int c = table[i];
+            if (c < 0 || c >= table.length || _inverse[c] >= 0) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[c] = i;
+        }
+    }
+
+    /** A permutation of ALPHABET with the tables FORWARD and INVERSE,
+     *  which must be inverse permutations of each other.  The tables are
+     *  not copied. */
+    private Permutation(int[] forward, int[] inverse, Alphabet alphabet) {
         _alphabet = alphabet;
-        String clean = cycles;
-        clean = clean.replace("(", " ");
-        clean = clean.replace(")", " ");
-        _cycles = clean.split(" ");
+        _forward = forward;
+        _inverse = inverse;
+    }
 
+    /** Fill in my tables from the cycles in characters FROM through TO-1
+     *  of CYCLES, checking their syntax iff STRICT. */
+    private void parseCycles(String cycles, int from, int to,
+                             boolean strict) {
+        int start = -1;
+        for (int i = from; i < to; i++) {
+            char ch = cycles.charAt(i);
+            if (ch == '(') {
+                if (strict && start >= 0) {
+                    throw error("nested cycle in %s",
+                                cycles.substring(from, to));
+                }
+                start = i + 1;
+            } else if (ch == ')') {
+                if (strict && start < 0) {
+                    throw error("unbalanced ')' in %s",
+                                cycles.substring(from, to));
+                }
+                if (start >= 0) {
+                    addCycle(cycles, start, i, strict);
+                }
+                start = -1;
+            } else if (Character.isWhitespace(ch)) {
+                if (start >= 0 && !strict) {
+                    addCycle(cycles, start, i, false);
+                    start = i + 1;
+                }
+            } else if (start < 0) {
+                if (strict) {
+                    throw error("character '%c' outside of a cycle in %s",
+                                ch, cycles.substring(from, to));
+                }
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            if (strict) {
+                throw error("unterminated cycle in %s",
+                            cycles.substring(from, to));
+            }
+            addCycle(cycles, start, to, false);
+        }
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        String[] newCycle = new String[_cycles.length + 1];
-        for (int i = 0; i < _cycles.length; i++) {
-            newCycle[i] = _cycles[i];
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where
+     *  characters START through END-1 of CYCLES are c0c1...cm, possibly
+     *  surrounded by whitespace, checking it against the cycles already
+     *  added iff STRICT. */
+    private void addCycle(String cycles, int start, int end,
+                          boolean strict) {
+        while (start < end && Character.isWhitespace(cycles.charAt(start))) {
+            start += 1;
+        }
+        while (end > start && Character.isWhitespace(cycles.charAt(end - 1))) {
+            end -= 1;
+        }
+        if (start == end) {
+            if (strict) {
+                throw error("empty cycle");
+            }
+            return;
+        }
+        int first = cycleChar(cycles, start, strict);
+        int prev = first;
+        for (int j = start + 1; j < end; j++) {
+            int next = cycleChar(cycles, j, strict);
+            _forward[prev] = next;
+            _inverse[next] = prev;
+            prev = next;
         }
-        newCycle[_cycles.length + 1] = cycle;
-        _cycles = newCycle;
+        _forward[prev] = first;
+        _inverse[first] = prev;
+    }
+
+    /** Return the index of character K of CYCLES, checking that it is in
+     *  my alphabet and has not been used before iff STRICT. */
+    private int cycleChar(String cycles, int k, boolean strict) {
+        char ch = cycles.charAt(k);
+        if (strict) {
+            if (!_alphabet.contains(ch)) {
+                throw error("character '%c' is not in the alphabet", ch);
+            }
+            int index = _alphabet.toInt(ch);
+            if (_seen[index]) {
+                throw error("character '%c' appears in more than one place"
+                            + " in the cycles", ch);
+            }
+            _seen[index] = true;
+            return index;
+        }
+        return _alphabet.toInt(ch);
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -44,69 +183,92 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-
-        char match = _alphabet.toChar(wrap(p));
-        char map = '_';
-
-        for (int i = 0; i < _cycles.length; i++) {
-            for (int j = 0; j < _cycles[i].length(); j++) {
-                if (_cycles[i].charAt(j) == match) {
-                    map = _cycles[i].charAt((j + 1) % _cycles[i].length());
-                    break;
-                }
-            }
-        }
-        if (map == '_') {
-            return p;
-        }
-        return _alphabet.toInt(map);
-
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char match = _alphabet.toChar(wrap(c));
-        char map = '_';
-
-        for (int i = 0; i < _cycles.length; i++) {
-            for (int j = 0; j < _cycles[i].length(); j++) {
-                if (_cycles[i].charAt(j) == match) {
-                    if (j == 0) {
-                        map = _cycles[i].
-                                charAt(_cycles[i].length() - 1);
-                    } else {
-                        map = _cycles[i].
-                                charAt(((j - 1) % _cycles[i].length()));
-                    }
-                }
-            }
-        }
-        if (map == '_') {
-            return c;
-        }
-        return _alphabet.toInt(map);
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        int match = _alphabet.toInt(p);
-        int index = permute(match);
-        return _alphabet.toChar(index);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        int match = _alphabet.toInt(c);
-        int index = invert(match);
-        return _alphabet.toChar(index);
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
+    }
+
+    /** Return the permutation that applies this permutation and then
+     *  OTHER, which must have the same size. */
+    Permutation compose(Permutation other) {
+        if (other.size() != size()) {
+            throw error("cannot compose permutations of different sizes");
+        }
+        int[] forward = new int[size()];
+        int[] inverse = new int[size()];
+        for (int i = 0; i < forward.length; i++) {
+            forward[i] = other._forward[_forward[i]];
+            inverse[forward[i]] = i;
+        }
+        return new Permutation(forward, inverse, _alphabet);
+    }
+
+    /** Return the inverse of this permutation. */
+    Permutation inverse() {
+        return new Permutation(_inverse.clone(), _forward.clone(), _alphabet);
+    }
+
+    /** Return this permutation applied K times (its inverse applied -K
+     *  times if K is negative). */
+    Permutation power(long k) {
+        int[] forward = new int[size()];
+        int[] inverse = new int[size()];
+        boolean[] done = new boolean[size()];
+        int[] cycle = new int[size()];
+        for (int start = 0; start < forward.length; start++) {
+            if (done[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int i = start; !done[i]; i = _forward[i]) {
+                done[i] = true;
+                cycle[len] = i;
+                len += 1;
+            }
+            int shift = (int) Math.floorMod(k, (long) len);
+            for (int j = 0; j < len; j++) {
+                int image = cycle[(j + shift) % len];
+                forward[cycle[j]] = image;
+                inverse[image] = cycle[j];
+            }
+        }
+        return new Permutation(forward, inverse, _alphabet);
+    }
+
+    /** Return the conjugate of this permutation by a rotation of the
+     *  alphabet by K: the permutation that maps P to permute(P + K) - K,
+     *  modulo the size.  This is the permutation performed by a rotor with
+     *  this permutation at setting K. */
+    Permutation conjugateByRotation(int k) {
+        int n = size();
+        int[] forward = new int[n];
+        int[] inverse = new int[n];
+        for (int i = 0; i < n; i++) {
+            forward[i] = wrap(_forward[wrap(i + k)] - k);
+            inverse[forward[i]] = i;
+        }
+        return new Permutation(forward, inverse, _alphabet);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -117,17 +279,24 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _cycles.length; i++) {
-            if (_cycles[i].length() == 1) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
-        return false;
+        return true;
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** Cycles within this permutation. */
-    private String[] _cycles;
+    /** The image of each index under this permutation. */
+    private final int[] _forward;
+
+    /** The image of each index under the inverse of this permutation. */
+    private final int[] _inverse;
+
+    /** Indices already placed in a cycle, used only while checking the
+     *  cycles of a strict permutation. */
+    private boolean[] _seen;
 }
@@ -2,7 +2,12 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A Rotor's
+ *  wiring (its name, permutation, and notches) never changes.  A Machine
+ *  keeps the setting of each of its slots itself and uses only the
+ *  methods that take an explicit setting, so one Rotor may be shared by
+ *  any number of machines and threads.  The setting kept by the Rotor
+ *  itself serves only the single-rotor methods.
  *  @author Aayush Gupta
  */
 class Rotor {
@@ -63,23 +68,27 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int result = _permutation.permute((permutation().wrap(p + _position)));
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
-        int output = _permutation.wrap(result - _position);
-        return output;
+        return convertForward(p, _position);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int result = _permutation.invert(permutation().wrap(e + _position));
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
-        int output = _permutation.wrap(result - _position);
-        return output;
+        return convertBackward(e, _position);
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation, as if my setting were POSN.  Does not
+     *  use or change my own setting. */
+    int convertForward(int p, int posn) {
+        return _permutation.wrap(_permutation.permute(p + posn) - posn);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation, as if my setting were
+     *  POSN.  Does not use or change my own setting. */
+    int convertBackward(int e, int posn) {
+        return _permutation.wrap(_permutation.invert(e + posn) - posn);
     }
 
     /** Returns the positions of the notches, as a string giving the letters
@@ -0,0 +1,37 @@
+package enigma;
+
+/** The complete state set by a setting line: the rotors in each slot, their
+ *  initial settings, and the plugboard.  A Setup refers to rotors by their
+ *  indices among a machine's available rotors (see Machine.rotorIndex), so
+ *  it may be applied to any machine with the same available rotors.
+ *  Setups are immutable.
+ *  @author Aayush Gupta
+ */
+class Setup {
+
+    /** A setup placing the available rotors numbered ROTORS in each slot,
+     *  at settings POSITIONS (indexed by slot), with plugboard PLUGBOARD
+     *  (null if none).  The arrays are not copied. */
+    Setup(int[] rotors, int[] positions, Permutation plugboard) {
+        _rotors = rotors;
+        _positions = positions;
+        _plugboard = plugboard;
+    }
+
+    /** Insert my rotors into MACHINE, set them, and set its plugboard. */
+    void applyTo(Machine machine) {
+        machine.insertRotors(_rotors);
+        machine.setRotors(_positions);
+        machine.setPlugboard(_plugboard);
+    }
+
+    /** Index of the available rotor in each slot. */
+    private final int[] _rotors;
+
+    /** Initial setting of each slot. */
+    private final int[] _positions;
+
+    /** Plugboard, or null if none. */
+    private final Permutation _plugboard;
+
+}
@@ -0,0 +1,201 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of the Setups described by recently seen setting lines.  Lines
+ *  are compared after normalization: leading and trailing whitespace is
+ *  ignored and each run of internal whitespace is treated as a single
+ *  blank.  Looking up a line that is in the cache allocates nothing.  When
+ *  the cache is full, the least recently used entry is replaced.
+ *
+ *  A SetupCache is not thread-safe; use one per thread.
+ *  @author Aayush Gupta
+ */
+class SetupCache {
+
+    /** Default number of entries. */
+    static final int DEFAULT_CAPACITY = 64;
+
+    /** A cache holding up to CAPACITY setups. */
+    SetupCache(int capacity) {
+        if (capacity < 1) {
+            throw error("setup cache capacity must be positive");
+        }
+        _keys = new char[capacity][];
+        _hashes = new int[capacity];
+        _setups = new Setup[capacity];
+        _lastUse = new long[capacity];
+    }
+
+    /** A cache holding up to DEFAULT_CAPACITY setups. */
+    SetupCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** Return the setup described by the setting line LINE for a machine
+     *  with the same alphabet, number of slots, and available rotors as
+     *  MACHINE, parsing LINE only if it is not in the cache. */
+    Setup lookup(String line, Machine machine) {
+        int hash = hash(line);
+        _tick += 1;
+        int victim = 0;
+        for (int i = 0; i < _setups.length; i++) {
+            if (_setups[i] == null) {
+                victim = i;
+                break;
+            }
+            if (_hashes[i] == hash && matches(line, _keys[i])) {
+                _lastUse[i] = _tick;
+                return _setups[i];
+            }
+            if (_lastUse[i] < _lastUse[victim]) {
+                victim = i;
+            }
+        }
+        Setup setup = parse(line, machine);
+        _keys[victim] = normalize(line);
+        _hashes[victim] = hash;
+        _setups[victim] = setup;
+        _lastUse[victim] = _tick;
+        return setup;
+    }
+
+    /** Return the setup described by the setting line LINE, which has the
+     *  form "* ROTOR... SETTINGS [CYCLES]", for a machine like MACHINE. */
+    static Setup parse(String line, Machine machine) {
+        int numRotors = machine.numRotors();
+        int end = line.length();
+        int p = skipBlanks(line, 0);
+        if (p == end || line.charAt(p) != '*') {
+            throw error("setting line must begin with '*'");
+        }
+        p = skipBlanks(line, p + 1);
+        int[] rotors = new int[numRotors];
+        for (int i = 0; i < numRotors; i++) {
+            int q = skipToken(line, p);
+            if (p == q || line.charAt(p) == '(') {
+                throw error("Incorrect number of rotors.");
+            }
+            rotors[i] = machine.rotorIndex(line, p, q);
+            p = skipBlanks(line, q);
+        }
+        int q = skipToken(line, p);
+        if (q - p != numRotors - 1 || line.charAt(p) == '(') {
+            throw error("Incorrect number of rotors.");
+        }
+        Alphabet alphabet = machine.alphabet();
+        int[] positions = new int[numRotors];
+        for (int i = 1; i < numRotors; i++) {
+            positions[i] = alphabet.toInt(line.charAt(p + i - 1));
+        }
+        p = skipBlanks(line, q);
+        Permutation plugboard = null;
+        if (p < end) {
+            if (line.charAt(p) != '(') {
+                throw error("Incorrect number of rotors.");
+            }
+            plugboard = new Permutation(line, p, end, alphabet, true);
+        }
+        return new Setup(rotors, positions, plugboard);
+    }
+
+    /** Return the index of the first non-whitespace character of LINE at
+     *  or after P, or LINE.length() if none. */
+    private static int skipBlanks(String line, int p) {
+        while (p < line.length() && Character.isWhitespace(line.charAt(p))) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return the index of the first whitespace character of LINE at or
+     *  after P, or LINE.length() if none. */
+    private static int skipToken(String line, int p) {
+        while (p < line.length()
+               && !Character.isWhitespace(line.charAt(p))) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return the hash code of the normalization of LINE. */
+    private static int hash(String line) {
+        int h = 0;
+        boolean blank = false;
+        for (int p = skipBlanks(line, 0); p < line.length(); p++) {
+            char ch = line.charAt(p);
+            if (Character.isWhitespace(ch)) {
+                blank = true;
+            } else {
+                if (blank) {
+                    h = 31 * h + ' ';
+                    blank = false;
+                }
+                h = 31 * h + ch;
+            }
+        }
+        return h;
+    }
+
+    /** Return true iff the normalization of LINE is KEY. */
+    private static boolean matches(String line, char[] key) {
+        int k = 0;
+        boolean blank = false;
+        for (int p = skipBlanks(line, 0); p < line.length(); p++) {
+            char ch = line.charAt(p);
+            if (Character.isWhitespace(ch)) {
+                blank = true;
+                continue;
+            }
+            if (blank) {
+                if (k == key.length || key[k] != ' ') {
+                    return false;
+                }
+                k += 1;
+                blank = false;
+            }
+            if (k == key.length || key[k] != ch) {
+                return false;
+            }
+            k += 1;
+        }
+        return k == key.length;
+    }
+
+    /** Return the normalization of LINE. */
+    private static char[] normalize(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        boolean blank = false;
+        for (int p = skipBlanks(line, 0); p < line.length(); p++) {
+            char ch = line.charAt(p);
+            if (Character.isWhitespace(ch)) {
+                blank = true;
+            } else {
+                if (blank) {
+                    result.append(' ');
+                    blank = false;
+                }
+                result.append(ch);
+            }
+        }
+        char[] key = new char[result.length()];
+        result.getChars(0, key.length, key, 0);
+        return key;
+    }
+
+    /** Normalized setting line of each entry. */
+    private final char[][] _keys;
+
+    /** Hash code of each entry's key. */
+    private final int[] _hashes;
+
+    /** Setup of each entry, or null if the entry is unused. */
+    private final Setup[] _setups;
+
+    /** Value of _tick when each entry was last used. */
+    private final long[] _lastUse;
+
+    /** Number of lookups so far. */
+    private long _tick;
+
+}
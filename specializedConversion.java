@@ -0,0 +1,470 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Conversion by classes generated at run time for one arrangement of
+ *  rotors.  For each sequence of rotors in a machine's slots, a hidden
+ *  class is defined whose convertAt method applies the plugboard and every
+ *  rotor, unrolled slot by slot, with each rotor's wiring in a static
+ *  final table of its own, so that there are no calls to Rotor and no
+ *  loops.  The tables are doubled to take rotor settings without
+ *  remainders: the forward table of a rotor maps C + S, for a character C
+ *  and setting S, to its wiring of (C + S) mod N, plus N, so that
+ *  subtracting S leaves an index into a common table of remainders mod N.
+ *  The body is thus straight-line code, with no branches and so no stack
+ *  maps.  The plugboard is a table held by each instance.  Stepping is
+ *  left to Machine, which calls convertAt with its settings.
+ *
+ *  Generated classes are kept for reuse by all machines, and each is
+ *  checked against Machine.convertAt when it is generated.
+ *  @author Aayush Gupta
+ */
+class SpecializedConversion {
+
+    /** A conversion specialized for one arrangement of rotors and one
+     *  plugboard. */
+    interface Kernel {
+        /** Return the result of applying the plugboard and rotors to C (as
+         *  an index in the range 0..alphabet size - 1) with the rotors at
+         *  settings POSN, indexed by slot, as Machine.convertAt would. */
+        int convertAt(int c, int[] posn);
+    }
+
+    /** Largest number of slots for which kernels are generated, which keeps
+     *  the generated method well within the limit on the length of
+     *  bytecode. */
+    static final int MAX_SLOTS = 512;
+
+    /** Return a kernel for the rotors and plugboard now in MACHINE, which
+     *  is not changed and has at most MAX_SLOTS slots. */
+    static Kernel kernel(Machine machine) {
+        if (machine.numRotors() > MAX_SLOTS) {
+            throw error("too many slots for a specialized machine");
+        }
+        List<Object> key = new ArrayList<>();
+        key.add(machine.alphabet());
+        for (int k = 0; k < machine.numRotors(); k++) {
+            key.add(machine.getRotor(k));
+        }
+        MethodHandle constructor = _classes.get(key);
+        if (constructor == null) {
+            constructor = define(machine);
+            check(newKernel(constructor, machine), machine);
+            if (_classes.size() >= MAX_CLASSES) {
+                _classes.clear();
+            }
+            _classes.put(key, constructor);
+        }
+        return newKernel(constructor, machine);
+    }
+
+    /** Return a kernel with constructor CONSTRUCTOR and the plugboard of
+     *  MACHINE. */
+    private static Kernel newKernel(MethodHandle constructor,
+                                    Machine machine) {
+        int n = machine.alphabet().size();
+        Permutation plugboard = machine.plugboard();
+        int[] plug = new int[n];
+        for (int c = 0; c < n; c++) {
+            plug[c] = plugboard == null ? c : plugboard.permute(c);
+        }
+        try {
+            return (Kernel) constructor.invoke(plug);
+        } catch (Throwable excp) {
+            throw error("could not create specialized machine: %s", excp);
+        }
+    }
+
+    /** Check that KERNEL converts as MACHINE does, for every character with
+     *  every slot at each setting in turn. */
+    private static void check(Kernel kernel, Machine machine) {
+        int n = machine.alphabet().size();
+        int[] posn = new int[machine.numRotors()];
+        for (int s = 0; s < n; s++) {
+            Arrays.fill(posn, s);
+            for (int c = 0; c < n; c++) {
+                if (kernel.convertAt(c, posn) != machine.convertAt(c, posn)) {
+                    throw error("specialized machine does not conform");
+                }
+            }
+        }
+    }
+
+    /** Define a hidden class specialized for the rotors in MACHINE, and
+     *  return a handle on its constructor, which takes the plugboard as a
+     *  table. */
+    private static MethodHandle define(Machine machine) {
+        int n = machine.alphabet().size();
+        int numRotors = machine.numRotors();
+        List<int[]> tables = new ArrayList<>();
+        int[] wrap = new int[2 * n];
+        for (int x = 0; x < 2 * n; x++) {
+            wrap[x] = x % n;
+        }
+        tables.add(wrap);
+        for (int k = 0; k < numRotors; k++) {
+            Permutation perm = machine.getRotor(k).permutation();
+            int[] forward = new int[2 * n];
+            int[] backward = new int[2 * n];
+            for (int x = 0; x < 2 * n; x++) {
+                forward[x] = perm.permute(x % n) + n;
+                backward[x] = perm.invert(x % n) + n;
+            }
+            tables.add(forward);
+            tables.add(backward);
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(classFile(numRotors),
+                                                List.copyOf(tables), true);
+            return lookup.findConstructor(lookup.lookupClass(),
+                                          MethodType.methodType(void.class,
+                                                                int[].class));
+        } catch (ReflectiveOperationException excp) {
+            throw error("could not define specialized machine: %s", excp);
+        }
+    }
+
+    /** Return the class file of a kernel for NUMROTORS slots.  Its class
+     *  data is the list of tables: the remainders, then the forward and
+     *  backward tables of each slot in turn. */
+    private static byte[] classFile(int numRotors) {
+        ClassFile cls = new ClassFile();
+        int self = cls.classRef(CLASS_NAME);
+        int object = cls.classRef("java/lang/Object");
+        int kernel = cls.classRef(KERNEL_NAME);
+        int plug = cls.fieldRef(CLASS_NAME, "plug", "[I");
+        int[] tables = new int[2 * numRotors + 1];
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = cls.fieldRef(CLASS_NAME, "t" + t, "[I");
+        }
+
+        ClassFile.Code init = cls.new Code();
+        init.op(ALOAD_0);
+        init.op(INVOKESPECIAL, cls.methodRef("java/lang/Object", "<init>",
+                                             "()V"));
+        init.op(ALOAD_0).op(ALOAD_1).op(PUTFIELD, plug).op(RETURN);
+
+        ClassFile.Code clinit = cls.new Code();
+        clinit.op(INVOKESTATIC,
+                  cls.methodRef("java/lang/invoke/MethodHandles", "lookup",
+                                "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+        clinit.op(LDC_W, cls.string("_"));
+        clinit.op(LDC_W, cls.classRef("java/util/List"));
+        clinit.op(INVOKESTATIC,
+                  cls.methodRef("java/lang/invoke/MethodHandles", "classData",
+                                "(Ljava/lang/invoke/MethodHandles$Lookup;"
+                                + "Ljava/lang/String;Ljava/lang/Class;)"
+                                + "Ljava/lang/Object;"));
+        clinit.op(CHECKCAST, cls.classRef("java/util/List")).op(ASTORE_0);
+        int get = cls.interfaceMethodRef("java/util/List", "get",
+                                         "(I)Ljava/lang/Object;");
+        for (int t = 0; t < tables.length; t++) {
+            clinit.op(ALOAD_0).push(t);
+            clinit.op(INVOKEINTERFACE, get).u1(2).u1(0);
+            clinit.op(CHECKCAST, cls.classRef("[I"));
+            clinit.op(PUTSTATIC, tables[t]);
+        }
+        clinit.op(RETURN);
+
+        ClassFile.Code convert = cls.new Code();
+        int c = 1, posn = 2, settings = 3;
+        for (int k = 0; k < numRotors; k++) {
+            convert.op(ALOAD, posn).push(k).op(IALOAD);
+            convert.op(ISTORE, settings + k);
+        }
+        convert.op(ALOAD_0).op(GETFIELD, plug).op(ILOAD, c).op(IALOAD);
+        convert.op(ISTORE, c);
+        for (int k = numRotors - 1; k >= 0; k--) {
+            convert.rotor(tables[0], tables[2 * k + 1], c, settings + k);
+        }
+        for (int k = 1; k < numRotors; k++) {
+            convert.rotor(tables[0], tables[2 * k + 2], c, settings + k);
+        }
+        convert.op(ALOAD_0).op(GETFIELD, plug).op(ILOAD, c).op(IALOAD);
+        convert.op(IRETURN);
+
+        cls.field(ACC_PRIVATE | ACC_FINAL, "plug", "[I");
+        for (int t = 0; t < tables.length; t++) {
+            cls.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "t" + t, "[I");
+        }
+        cls.method(ACC_PUBLIC, "<init>", "([I)V", init, 2, 2);
+        cls.method(ACC_STATIC, "<clinit>", "()V", clinit, 3, 1);
+        cls.method(ACC_PUBLIC, "convertAt", "(I[I)I", convert, 4,
+                   settings + numRotors);
+        return cls.toBytes(ACC_FINAL | ACC_SUPER, self, object, kernel);
+    }
+
+    /** A class file being assembled, with its constant pool, fields, and
+     *  methods. */
+    private static class ClassFile {
+
+        /** Straight-line bytecode for one method. */
+        class Code {
+
+            /** Append opcode OP and return me. */
+            Code op(int op) {
+                _code.write(op);
+                return this;
+            }
+
+            /** Append opcode OP with the two-byte operand ARG, or, for the
+             *  local-variable opcodes, the local-variable index ARG (made
+             *  WIDE if it does not fit in one byte), and return me. */
+            Code op(int op, int arg) {
+                boolean local = op == ILOAD || op == ALOAD || op == ISTORE;
+                if (local && arg > MAX_NARROW_LOCAL) {
+                    _code.write(WIDE);
+                    local = false;
+                }
+                _code.write(op);
+                if (local) {
+                    _code.write(arg);
+                } else {
+                    _code.write(arg >> 8);
+                    _code.write(arg);
+                }
+                return this;
+            }
+
+            /** Append the byte B and return me. */
+            Code u1(int b) {
+                _code.write(b);
+                return this;
+            }
+
+            /** Append code to push the int constant K and return me. */
+            Code push(int k) {
+                if (k <= ICONST_MAX) {
+                    return op(ICONST_0 + k);
+                }
+                return op(SIPUSH, k);
+            }
+
+            /** Append code that replaces local C with its conversion by a
+             *  rotor with doubled table TABLE at the setting in local S,
+             *  using the remainders in WRAP. */
+            void rotor(int wrap, int table, int c, int s) {
+                op(GETSTATIC, wrap);
+                op(GETSTATIC, table).op(ILOAD, c).op(ILOAD, s).op(IADD);
+                op(IALOAD).op(ILOAD, s).op(ISUB).op(IALOAD);
+                op(ISTORE, c);
+            }
+
+            /** The bytecode so far. */
+            private final ByteArrayOutputStream _code =
+                new ByteArrayOutputStream();
+        }
+
+        /** Return the index of the constant-pool entry with tag TAG and
+         *  contents written by ENTRY, adding it if necessary. */
+        private int constant(int tag, String key, byte[] entry) {
+            Integer index = _pool.get(tag + ":" + key);
+            if (index == null) {
+                index = _count;
+                _pool.put(tag + ":" + key, index);
+                _constants.write(tag);
+                _constants.write(entry, 0, entry.length);
+                _count += 1;
+            }
+            return index;
+        }
+
+        /** Return the index of the UTF8 constant S. */
+        int utf8(String s) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                new DataOutputStream(bytes).writeUTF(s);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return constant(CONSTANT_UTF8, s, bytes.toByteArray());
+        }
+
+        /** Return the index of the constant naming class NAME. */
+        int classRef(String name) {
+            return constant(CONSTANT_CLASS, name, u2(utf8(name)));
+        }
+
+        /** Return the index of the string constant S. */
+        int string(String s) {
+            return constant(CONSTANT_STRING, s, u2(utf8(s)));
+        }
+
+        /** Return the index of the member reference with tag TAG to the
+         *  member NAME, of type DESC, of class OWNER. */
+        private int member(int tag, String owner, String name, String desc) {
+            int nameAndType =
+                constant(CONSTANT_NAME_AND_TYPE, name + ":" + desc,
+                         u2(utf8(name), utf8(desc)));
+            return constant(tag, owner + "." + name + ":" + desc,
+                            u2(classRef(owner), nameAndType));
+        }
+
+        /** Return the index of a reference to field NAME, of type DESC, of
+         *  class OWNER. */
+        int fieldRef(String owner, String name, String desc) {
+            return member(CONSTANT_FIELDREF, owner, name, desc);
+        }
+
+        /** Return the index of a reference to method NAME, of type DESC,
+         *  of class OWNER. */
+        int methodRef(String owner, String name, String desc) {
+            return member(CONSTANT_METHODREF, owner, name, desc);
+        }
+
+        /** Return the index of a reference to method NAME, of type DESC,
+         *  of interface OWNER. */
+        int interfaceMethodRef(String owner, String name, String desc) {
+            return member(CONSTANT_INTERFACE_METHODREF, owner, name, desc);
+        }
+
+        /** Add a field with access flags ACCESS, name NAME, and type
+         *  DESC. */
+        void field(int access, String name, String desc) {
+            _fields.write(u2(access, utf8(name), utf8(desc), 0), 0, 8);
+            _numFields += 1;
+        }
+
+        /** Add a method with access flags ACCESS, name NAME, type DESC, and
+         *  body CODE, which needs at most MAXSTACK stack entries and
+         *  MAXLOCALS local variables. */
+        void method(int access, String name, String desc, Code code,
+                    int maxStack, int maxLocals) {
+            byte[] body = code._code.toByteArray();
+            DataOutputStream out = new DataOutputStream(_methods);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(desc));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(CODE_HEADER + body.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            _numMethods += 1;
+        }
+
+        /** Return the finished class file for a class with access flags
+         *  ACCESS, whose own, super-, and only interface class constants
+         *  are SELF, SUP, and IFACE. */
+        byte[] toBytes(int access, int self, int sup, int iface) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(MAGIC);
+                out.writeShort(0);
+                out.writeShort(CLASS_VERSION);
+                out.writeShort(_count);
+                _constants.writeTo(out);
+                out.write(u2(access, self, sup, 1, iface));
+                out.writeShort(_numFields);
+                _fields.writeTo(out);
+                out.writeShort(_numMethods);
+                _methods.writeTo(out);
+                out.writeShort(0);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return bytes.toByteArray();
+        }
+
+        /** Return VALUES as two-byte big-endian quantities. */
+        private static byte[] u2(int... values) {
+            byte[] result = new byte[2 * values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[2 * i] = (byte) (values[i] >> 8);
+                result[2 * i + 1] = (byte) values[i];
+            }
+            return result;
+        }
+
+        /** Indices of the constant-pool entries, by tag and contents. */
+        private final HashMap<String, Integer> _pool = new HashMap<>();
+
+        /** The constant-pool entries. */
+        private final ByteArrayOutputStream _constants =
+            new ByteArrayOutputStream();
+
+        /** One more than the number of constant-pool entries. */
+        private int _count = 1;
+
+        /** The field entries. */
+        private final ByteArrayOutputStream _fields =
+            new ByteArrayOutputStream();
+
+        /** The method entries. */
+        private final ByteArrayOutputStream _methods =
+            new ByteArrayOutputStream();
+
+        /** Numbers of fields and methods. */
+        private int _numFields, _numMethods;
+
+    }
+
+    /** Largest number of generated classes kept for reuse. */
+    private static final int MAX_CLASSES = 1 << 10;
+
+    /** Constructors of the generated classes, by alphabet and rotors. */
+    private static final ConcurrentHashMap<List<Object>, MethodHandle>
+        _classes = new ConcurrentHashMap<>();
+
+    /** Internal names of the generated classes and of Kernel. */
+    private static final String
+        CLASS_NAME = "enigma/SpecializedKernel",
+        KERNEL_NAME = "enigma/SpecializedConversion$Kernel";
+
+    /** Class file magic number and major version (Java 8, the first for
+     *  which straight-line code needs no stack map). */
+    private static final int MAGIC = 0xCAFEBABE, CLASS_VERSION = 52;
+
+    /** Length of a Code attribute apart from its bytecode. */
+    private static final int CODE_HEADER = 12;
+
+    /** Constant-pool tags. */
+    private static final int
+        CONSTANT_UTF8 = 1, CONSTANT_CLASS = 7, CONSTANT_STRING = 8,
+        CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10,
+        CONSTANT_INTERFACE_METHODREF = 11, CONSTANT_NAME_AND_TYPE = 12;
+
+    /** Access flags. */
+    private static final int
+        ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008,
+        ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    /** Opcodes. */
+    private static final int
+        ICONST_0 = 0x03, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+        ALOAD = 0x19, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e,
+        ISTORE = 0x36, ASTORE_0 = 0x4b, IADD = 0x60, ISUB = 0x64,
+        IRETURN = 0xac, RETURN = 0xb1, GETSTATIC = 0xb2, PUTSTATIC = 0xb3,
+        GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKESPECIAL = 0xb7,
+        INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9, CHECKCAST = 0xc0,
+        WIDE = 0xc4;
+
+    /** Largest local-variable index that fits in a one-byte operand. */
+    private static final int MAX_NARROW_LOCAL = 0xff;
+
+    /** Largest constant pushed with an ICONST opcode. */
+    private static final int ICONST_MAX = 5;
+
+}
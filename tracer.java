@@ -0,0 +1,199 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** Records the conversions performed by one Machine and prints them, in
+ *  the background, showing the rotor settings and the path of each traced
+ *  character through the plugboard and rotors.  The machine's thread only
+ *  copies the input, output, and settings of a traced character into a
+ *  preallocated ring buffer; a daemon thread reconstructs the path from
+ *  the (immutable) rotors and plugboard and formats it.  If the buffer is
+ *  full, records are dropped rather than delaying the machine.
+ *  @author Aayush Gupta
+ */
+class Tracer {
+
+    /** Default number of records in the ring buffer. */
+    static final int DEFAULT_CAPACITY = 1 << 14;
+
+    /** A tracer for MACHINE that prints every SAMPLE'th converted
+     *  character to OUT, using a buffer of CAPACITY records (a power of
+     *  2). */
+    Tracer(Machine machine, PrintStream out, int sample, int capacity) {
+        if (sample < 1 || Integer.bitCount(capacity) != 1) {
+            throw error("bad trace sampling rate or capacity");
+        }
+        _alphabet = machine.alphabet();
+        _width = machine.numRotors();
+        _out = out;
+        _sample = sample;
+        _countdown = sample;
+        _mask = capacity - 1;
+        _ints = new int[capacity * (2 * _width + 2)];
+        _refs = new Object[capacity * (_width + 1)];
+        _drainer = new Thread(this::drainLoop, "enigma-tracer");
+        _drainer.setDaemon(true);
+        _drainer.start();
+    }
+
+    /** A tracer for MACHINE that prints every SAMPLE'th converted
+     *  character to OUT. */
+    Tracer(Machine machine, PrintStream out, int sample) {
+        this(machine, out, sample, DEFAULT_CAPACITY);
+    }
+
+    /** Called by the machine before converting a character with its rotors
+     *  at SETTINGS, indexed by slot.  Returns the ring slot in which to
+     *  record the conversion, or -1 if this character is not to be
+     *  traced. */
+    int begin(int[] settings) {
+        _countdown -= 1;
+        if (_countdown > 0) {
+            return -1;
+        }
+        _countdown = _sample;
+        long head = _head.get();
+        if (head - _tail.get() > _mask) {
+            _dropped += 1;
+            return -1;
+        }
+        int slot = (int) (head & _mask);
+        System.arraycopy(settings, 0, _ints, slot * (2 * _width + 2) + 2,
+                         _width);
+        return slot;
+    }
+
+    /** Called by the machine after converting IN to OUT in ring slot SLOT
+     *  (as returned by begin), with its rotors, which were ROTORS, at
+     *  SETTINGS and with plugboard PLUGBOARD (null if none). */
+    void end(int slot, int in, int out, int[] settings, Rotor[] rotors,
+             Permutation plugboard) {
+        int base = slot * (2 * _width + 2);
+        _ints[base] = in;
+        _ints[base + 1] = out;
+        System.arraycopy(settings, 0, _ints, base + 2 + _width, _width);
+        int refBase = slot * (_width + 1);
+        _refs[refBase] = plugboard;
+        System.arraycopy(rotors, 0, _refs, refBase + 1, _width);
+        _head.lazySet(_head.get() + 1);
+    }
+
+    /** Print all outstanding records and stop the background thread. */
+    void close() {
+        _closed = true;
+        LockSupport.unpark(_drainer);
+        try {
+            _drainer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        if (_dropped > 0) {
+            _out.printf("(%d trace records dropped)%n", _dropped);
+        }
+        _out.flush();
+    }
+
+    /** Body of the background thread: print records as they arrive until
+     *  closed. */
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder();
+        Formatter fmt = new Formatter(line);
+        while (true) {
+            boolean closed = _closed;
+            long head = _head.get();
+            long tail = _tail.get();
+            for (; tail < head; tail += 1) {
+                line.setLength(0);
+                format(fmt, (int) (tail & _mask));
+                _out.print(line);
+                _tail.lazySet(tail + 1);
+            }
+            if (closed && tail == _head.get()) {
+                return;
+            }
+            LockSupport.parkNanos(DRAIN_PAUSE);
+        }
+    }
+
+    /** Format the record in ring slot SLOT onto FMT, as the line printed
+     *  by Machine.convert with --verbose: the settings of slots 1 and up
+     *  before stepping, the input (twice), the value read from the wiring
+     *  of each rotor on the way in and on the way out (before the rotor's
+     *  setting is subtracted), and the output. */
+    private void format(Formatter fmt, int slot) {
+        int base = slot * (2 * _width + 2);
+        int refBase = slot * (_width + 1);
+        int pre = base + 2, post = base + 2 + _width;
+        int n = _alphabet.size();
+        Permutation plugboard = (Permutation) _refs[refBase];
+        fmt.format("[");
+        for (int r = 1; r < _width; r += 1) {
+            fmt.format("%c", _alphabet.toChar(_ints[pre + r]));
+        }
+        int c = _ints[base];
+        fmt.format("] %c -> %c -> ", _alphabet.toChar(c),
+                   _alphabet.toChar(c));
+        if (plugboard != null) {
+            c = plugboard.permute(c);
+        }
+        for (int i = _width - 1; i >= 0; i -= 1) {
+            Rotor rotor = (Rotor) _refs[refBase + 1 + i];
+            c = rotor.convertForward(c, _ints[post + i]);
+            fmt.format("%c -> ", _alphabet.toChar((c + _ints[post + i]) % n));
+        }
+        for (int i = 1; i < _width; i += 1) {
+            Rotor rotor = (Rotor) _refs[refBase + 1 + i];
+            c = rotor.convertBackward(c, _ints[post + i]);
+            fmt.format("%c -> ", _alphabet.toChar((c + _ints[post + i]) % n));
+        }
+        fmt.format("%c%n", _alphabet.toChar(_ints[base + 1]));
+    }
+
+    /** Nanoseconds the background thread waits when it has nothing to
+     *  print. */
+    private static final long DRAIN_PAUSE = 1_000_000;
+
+    /** Alphabet of the traced machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots in the traced machine. */
+    private final int _width;
+
+    /** Destination of trace output. */
+    private final PrintStream _out;
+
+    /** One of every _sample characters is traced. */
+    private final int _sample;
+
+    /** Number of characters until the next traced one. */
+    private int _countdown;
+
+    /** Capacity of the ring buffer minus 1. */
+    private final int _mask;
+
+    /** For each ring slot, the input, output, settings before, and
+     *  settings after stepping of a traced character. */
+    private final int[] _ints;
+
+    /** For each ring slot, the plugboard and the rotors in each slot. */
+    private final Object[] _refs;
+
+    /** Number of records written and number of records printed. */
+    private final AtomicLong _head = new AtomicLong(),
+        _tail = new AtomicLong();
+
+    /** Number of records dropped because the buffer was full. */
+    private long _dropped;
+
+    /** Set when no more records will be written. */
+    private volatile boolean _closed;
+
+    /** The background thread that prints records. */
+    private final Thread _drainer;
+
+}
@@ -0,0 +1,255 @@
+package enigma;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static enigma.EnigmaException.*;
+
+/** Converts several independent messages at once, one per lane of an
+ *  IntVector, using the incubating Vector API.  For each rotor slot, the
+ *  settings of all lanes are held in one vector, and rotor and plugboard
+ *  tables are read with gather loads.  Every lane advances its own
+ *  settings exactly as Machine.step would, so the lanes may hold machines
+ *  with different rotors, settings, and plugboards, as long as all have
+ *  the same alphabet, numbers of slots and pawls, and available rotors.
+ *
+ *  This class requires the module jdk.incubator.vector, both to compile
+ *  and to run; LaneConversion uses it only when that module is present.
+ *  @author Aayush Gupta
+ */
+final class VectorLanes {
+
+    /** Shape of the vectors used. */
+    static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+    /** Number of messages converted at once. */
+    static final int LANES = SPECIES.length();
+
+    /** Lanes for machines with alphabet ALPHA, NUMROTORS rotor slots, and
+     *  PAWLS pawls, whose rotors are drawn from ALLROTORS. */
+    VectorLanes(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors) {
+        int n = alpha.size();
+        _size = n;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _index = new IdentityHashMap<>();
+        _forward = new int[2 * n * allRotors.size()];
+        _backward = new int[2 * n * allRotors.size()];
+        _notched = new int[n * allRotors.size()];
+        int r = 0;
+        for (Rotor rotor : allRotors) {
+            _index.put(rotor, r);
+            Permutation perm = rotor.permutation();
+            for (int j = 0; j < 2 * n; j++) {
+                _forward[2 * n * r + j] = perm.permute(j % n) + n;
+                _backward[2 * n * r + j] = perm.invert(j % n) + n;
+            }
+            String notches = rotor.notches();
+            for (int k = 0; k < notches.length(); k++) {
+                _notched[n * r + alpha.toInt(notches.charAt(k))] = 1;
+            }
+            r += 1;
+        }
+        _plugboards = new int[LANES * n];
+        _scratch = new int[LANES];
+        _chars = new int[LANES];
+        _lengths = new int[LANES];
+        _rotates = new boolean[numRotors][LANES];
+        _posn = new int[numRotors][LANES];
+        _forwardBase = new int[numRotors][LANES];
+        _notchBase = new int[numRotors][LANES];
+    }
+
+    /** Convert the first LENGTHS[I] indices of MESSAGES[I] in place with
+     *  MACHINES[I], for FROM <= I < FROM + COUNT, where COUNT <= LANES,
+     *  advancing each machine as Machine.convert(int[], int) would. */
+    void convert(Machine[] machines, int[][] messages, int[] lengths,
+                 int from, int count) {
+        int n = _size;
+        int last = _numRotors - 1;
+        int first = _numRotors - _pawls;
+        int maxLength = load(machines, lengths, from, count);
+
+        IntVector[] posn = new IntVector[_numRotors];
+        IntVector[] fbase = new IntVector[_numRotors];
+        IntVector[] nbase = new IntVector[_numRotors];
+        VectorMask<Integer>[] rotates = newMasks(_numRotors);
+        for (int k = 0; k < _numRotors; k++) {
+            posn[k] = IntVector.fromArray(SPECIES, _posn[k], 0);
+            fbase[k] = IntVector.fromArray(SPECIES, _forwardBase[k], 0);
+            nbase[k] = IntVector.fromArray(SPECIES, _notchBase[k], 0);
+            rotates[k] = VectorMask.fromArray(SPECIES, _rotates[k], 0);
+        }
+        IntVector lengthV = IntVector.fromArray(SPECIES, _lengths, 0);
+        IntVector laneBase = IntVector.zero(SPECIES).addIndex(n);
+        VectorMask<Integer> none = SPECIES.maskAll(false);
+        VectorMask<Integer>[] advance = newMasks(_numRotors);
+
+        for (int t = 0; t < maxLength; t++) {
+            VectorMask<Integer> active =
+                lengthV.compare(VectorOperators.GT, t);
+            for (int l = 0; l < count; l++) {
+                _chars[l] = t < _lengths[l] ? messages[from + l][t] : 0;
+            }
+
+            if (_pawls > 0) {
+                VectorMask<Integer> consumed = none;
+                for (int k = first; k <= last; k++) {
+                    advance[k] = none;
+                }
+                for (int i = first; i < last; i++) {
+                    IntVector atNotch =
+                        gather(_notched, nbase[i + 1].add(posn[i + 1]));
+                    VectorMask<Integer> pushed = rotates[i]
+                        .and(atNotch.compare(VectorOperators.NE, 0))
+                        .andNot(consumed);
+                    advance[i] = advance[i].or(pushed);
+                    advance[i + 1] = pushed;
+                    consumed = pushed;
+                }
+                advance[last] = SPECIES.maskAll(true);
+                for (int k = first; k <= last; k++) {
+                    VectorMask<Integer> moves =
+                        advance[k].and(rotates[k]).and(active);
+                    posn[k] = wrap(posn[k].add(1, moves));
+                }
+            }
+
+            IntVector c = IntVector.fromArray(SPECIES, _chars, 0);
+            c = gather(_plugboards, laneBase.add(c));
+            for (int i = last; i >= 0; i--) {
+                c = wrap(gather(_forward, fbase[i].add(c).add(posn[i]))
+                         .sub(posn[i]));
+            }
+            for (int i = 1; i <= last; i++) {
+                c = wrap(gather(_backward, fbase[i].add(c).add(posn[i]))
+                         .sub(posn[i]));
+            }
+            c = gather(_plugboards, laneBase.add(c));
+            c.intoArray(_chars, 0);
+            for (int l = 0; l < count; l++) {
+                if (t < _lengths[l]) {
+                    messages[from + l][t] = _chars[l];
+                }
+            }
+        }
+
+        for (int k = 0; k < _numRotors; k++) {
+            posn[k].intoArray(_posn[k], 0);
+        }
+        int[] settings = new int[_numRotors];
+        for (int l = 0; l < count; l++) {
+            for (int k = 0; k < _numRotors; k++) {
+                settings[k] = _posn[k][l];
+            }
+            machines[from + l].setRotors(settings);
+        }
+    }
+
+    /** Fill in the per-lane tables from MACHINES[FROM .. FROM+COUNT-1] and
+     *  LENGTHS, and return the largest length.  Unused lanes are given
+     *  length 0 and the rotors of the last machine. */
+    private int load(Machine[] machines, int[] lengths, int from, int count) {
+        int n = _size;
+        int maxLength = 0;
+        for (int l = 0; l < LANES; l++) {
+            Machine machine = machines[from + Math.min(l, count - 1)];
+            if (machine.numRotors() != _numRotors
+                || machine.numPawls() != _pawls
+                || machine.alphabet().size() != n) {
+                throw error("machine does not match its lanes");
+            }
+            _lengths[l] = l < count ? lengths[from + l] : 0;
+            maxLength = Math.max(maxLength, _lengths[l]);
+            for (int k = 0; k < _numRotors; k++) {
+                Integer r = _index.get(machine.getRotor(k));
+                if (r == null) {
+                    throw error("rotor %s is not available",
+                                machine.getRotor(k).name());
+                }
+                _forwardBase[k][l] = 2 * n * r;
+                _notchBase[k][l] = n * r;
+                _rotates[k][l] = machine.getRotor(k).rotates();
+                _posn[k][l] = machine.setting(k);
+            }
+            Permutation plugboard = machine.plugboard();
+            for (int x = 0; x < n; x++) {
+                _plugboards[l * n + x] =
+                    plugboard == null ? x : plugboard.permute(x);
+            }
+        }
+        return maxLength;
+    }
+
+    /** Return the elements of TABLE at INDICES. */
+    private IntVector gather(int[] table, IntVector indices) {
+        indices.intoArray(_scratch, 0);
+        return IntVector.fromArray(SPECIES, table, 0, _scratch, 0);
+    }
+
+    /** Return V with my alphabet size subtracted from each element that is
+     *  at least that size. */
+    private IntVector wrap(IntVector v) {
+        return v.sub(_size, v.compare(VectorOperators.GE, _size));
+    }
+
+    /** Return an array of N masks. */
+    @SuppressWarnings("unchecked")
+    private static VectorMask<Integer>[] newMasks(int n) {
+        return (VectorMask<Integer>[]) new VectorMask<?>[n];
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of rotor slots and pawls. */
+    private final int _numRotors, _pawls;
+
+    /** Index of each available rotor in the tables. */
+    private final IdentityHashMap<Rotor, Integer> _index;
+
+    /** For available rotor #R, the image of J mod (alphabet size) plus
+     *  the alphabet size under its permutation is at 2 * size * R + J, for
+     *  0 <= J < 2 * size, so that no index needs wrapping. */
+    private final int[] _forward;
+
+    /** As for _forward, for the inverses of the permutations. */
+    private final int[] _backward;
+
+    /** For available rotor #R, 1 at size * R + P if setting P is a notch,
+     *  and otherwise 0. */
+    private final int[] _notched;
+
+    /** Plugboard of each lane L, at L * size + X for each index X. */
+    private final int[] _plugboards;
+
+    /** Indices of a gather. */
+    private final int[] _scratch;
+
+    /** Characters of each lane being converted. */
+    private final int[] _chars;
+
+    /** Message length of each lane. */
+    private final int[] _lengths;
+
+    /** For each slot, whether each lane's rotor rotates. */
+    private final boolean[][] _rotates;
+
+    /** For each slot, the setting in each lane. */
+    private final int[][] _posn;
+
+    /** For each slot, the base in _forward and _backward of each lane's
+     *  rotor. */
+    private final int[][] _forwardBase;
+
+    /** For each slot, the base in _notched of each lane's rotor. */
+    private final int[][] _notchBase;
+
+}